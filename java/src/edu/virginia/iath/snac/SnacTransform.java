@@ -17,12 +17,35 @@
 package edu.virginia.iath.snac;
 
 import edu.virginia.iath.snac.functions.DateParser;
+import edu.virginia.iath.snac.functions.DateParserBatch;
 import edu.virginia.iath.snac.functions.GeoNamesCheshire;
+import edu.virginia.iath.snac.functions.GeoNamesCheshireBatch;
 import edu.virginia.iath.snac.functions.GeoNamesWebLookup;
+import edu.virginia.iath.snac.helpers.GeoNamesCache;
+import edu.virginia.iath.snac.helpers.SearchTierReport;
 
 // XML imports
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
@@ -36,12 +59,26 @@ import net.sf.saxon.Configuration;
 
 /**
  * SnacTransform.  Loads extensions and executes Saxon's transform.
+ * <p>
+ * Given the <code>-workers:N</code> option, it instead runs a driver for large directories of input
+ * files: the stylesheet is compiled once, and the files are transformed by a pool of N worker threads,
+ * with at most <code>-inflight:M</code> files (default 4 per worker, and never fewer than N) submitted but not yet finished.
+ * A file that fails to transform is reported and skipped, and a summary of the run is printed at the end.
+ * The driver accepts only the <code>-s</code>, <code>-xsl</code> and <code>-o</code> options and string
+ * stylesheet parameters:
+ * <pre>
+ * java edu.virginia.iath.snac.SnacTransform -workers:8 -s:input-dir -xsl:stylesheet.xsl -o:output-dir param=value
+ * </pre>
+ * Given the <code>-serve:port</code> or <code>-serve:stdin</code> option, it stays resident as a transform
+ * server, taking one job per line (see <code>serve</code>).
  * 
  * @author Robbie Hott
  *
  */
 public class SnacTransform extends net.sf.saxon.Transform {
 
+	private static TemplatesCache templatesCache = null;
+
 	/**
 	 * Override of Transform's configuration initialization function.  We use
 	 * this to add our new extension functions to the transform.
@@ -51,10 +88,26 @@ public class SnacTransform extends net.sf.saxon.Transform {
 	protected void initializeConfiguration(Configuration config) {
 		// Need to register each of the extensions built as defined below.
 		config.registerExtensionFunction(new DateParser());
+		config.registerExtensionFunction(new DateParserBatch());
 		config.registerExtensionFunction(new GeoNamesWebLookup());
 		config.registerExtensionFunction(new GeoNamesCheshire());
+		config.registerExtensionFunction(new GeoNamesCheshireBatch());
         }
 
+	/**
+	 * Gets the shared cache of compiled stylesheets, whose factory has the extensions registered.
+	 *
+	 * @return The shared stylesheet cache.
+	 */
+	public static synchronized TemplatesCache getTemplatesCache() {
+		if (templatesCache == null) {
+			TransformerFactoryImpl factory = new TransformerFactoryImpl();
+			(new SnacTransform()).initializeConfiguration(factory.getConfiguration());
+			templatesCache = new TemplatesCache(factory);
+		}
+		return templatesCache;
+	}
+
 	/**
 	 * Parses command line arguments and sends the first two to Saxon's transform method call.
 	 * 
@@ -62,11 +115,232 @@ public class SnacTransform extends net.sf.saxon.Transform {
 	 */
 	public static void main(String[] args) {
 		try {
-			(new SnacTransform()).doTransform(args, "java net.sf.saxon.Transform");
+			if (hasOption(args, "serve"))
+				(new SnacTransform()).serve(args);
+			else if (hasOption(args, "workers"))
+				(new SnacTransform()).doParallelTransform(args);
+			else
+				(new SnacTransform()).doTransform(args, "java net.sf.saxon.Transform");
+
+			// Report how well the GeoNames cache did, if asked
+			if (Boolean.getBoolean("snac.geonames.cacheStats"))
+				System.err.println(GeoNamesCache.getInstance());
+			if (Boolean.getBoolean("snac.geonames.tierReport"))
+				System.err.println(SearchTierReport.getInstance());
 		} catch (Exception e) {
 			System.out.println("Error Initializing Saxon's Default Transform");
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Whether the command line has the given option.
+	 *
+	 * @param args command line arguments
+	 * @param name option name, without the leading dash
+	 * @return True if the option is given, false otherwise.
+	 */
+	private static boolean hasOption(String[] args, String name) {
+		for (String arg : args) {
+			if (arg.startsWith("-" + name + ":"))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the parallel driver: compiles the stylesheet once and transforms each input file on a pool of
+	 * worker threads, printing a summary when all files are done.
+	 *
+	 * @param args command line arguments
+	 * @throws Exception if the arguments are bad or the stylesheet can't be compiled
+	 */
+	private void doParallelTransform(String[] args) throws Exception {
+		String source = null, stylesheet = null, output = null;
+		int workers = 1, inflight = -1;
+		final Map<String, String> params = new LinkedHashMap<String, String>();
+
+		for (String arg : args) {
+			if (arg.startsWith("-workers:"))
+				workers = Integer.parseInt(arg.substring(9));
+			else if (arg.startsWith("-inflight:")) {
+				inflight = Integer.parseInt(arg.substring(10));
+				if (inflight < 1)
+					throw new IllegalArgumentException("-inflight must be at least 1");
+			}
+			else if (arg.startsWith("-s:"))
+				source = arg.substring(3);
+			else if (arg.startsWith("-xsl:"))
+				stylesheet = arg.substring(5);
+			else if (arg.startsWith("-o:"))
+				output = arg.substring(3);
+			else if (!arg.startsWith("-") && arg.indexOf('=') > 0)
+				params.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+			else
+				throw new IllegalArgumentException("Option " + arg + " is not supported with -workers");
+		}
+		if (source == null || stylesheet == null || output == null)
+			throw new IllegalArgumentException("-workers needs the -s, -xsl and -o options");
+		if (workers < 1)
+			throw new IllegalArgumentException("-workers must be at least 1");
+		// Default when not given; a smaller limit than the number of workers would leave workers idle
+		if (inflight < 0)
+			inflight = 4 * workers;
+		else if (inflight < workers)
+			inflight = workers;
+
+		// Inputs: the file itself, or the files of the directory (not its subdirectories)
+		List<File> inputs = new ArrayList<File>();
+		File sourceFile = new File(source);
+		if (sourceFile.isDirectory()) {
+			File[] files = sourceFile.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (file.isFile())
+						inputs.add(file);
+				}
+			}
+		} else {
+			inputs.add(sourceFile);
+		}
+		final File outputDir = new File(output);
+		if (!outputDir.isDirectory() && !outputDir.mkdirs())
+			throw new IllegalArgumentException("Could not create the output directory " + output);
+
+		// Compile the stylesheet once, with the extensions registered
+		final Templates templates = getTemplatesCache().get(new File(stylesheet));
+
+		final AtomicInteger failed = new AtomicInteger(0);
+		final Semaphore slots = new Semaphore(inflight);
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		long start = System.currentTimeMillis();
+
+		for (final File input : inputs) {
+			slots.acquire();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						transformFile(templates, params, input, new File(outputDir, input.getName()));
+					} catch (Exception e) {
+						failed.incrementAndGet();
+						System.err.println("Failed to transform " + input + ": " + e.getMessage());
+					} finally {
+						slots.release();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		System.err.println("Transformed " + (inputs.size() - failed.get()) + " of " + inputs.size() + " files ("
+				+ failed.get() + " failed) in " + elapsed + "ms with " + workers + " workers, "
+				+ String.format("%.1f", inputs.size() * 1000.0 / elapsed) + " files/s");
+	}
+
+	/**
+	 * Transforms one file with a compiled stylesheet.
+	 *
+	 * @param templates compiled stylesheet
+	 * @param params string stylesheet parameters
+	 * @param input input file
+	 * @param output output file
+	 * @throws TransformerException if the transform fails
+	 */
+	private static void transformFile(Templates templates, Map<String, String> params, File input, File output)
+			throws TransformerException {
+		Transformer transformer = templates.newTransformer();
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			transformer.setParameter(param.getKey(), param.getValue());
+		}
+		transformer.transform(new StreamSource(input), new StreamResult(output));
+	}
+
+	/**
+	 * Runs the transform server: stays resident with the compiled stylesheets, caches and Cheshire connections
+	 * kept warm, and runs transform jobs sent one per line.  With <code>-serve:stdin</code> jobs are read from
+	 * standard input and answered on standard output until the input ends; with <code>-serve:port</code> they
+	 * are read from connections to that port on the local host, each connection on its own thread.
+	 * <p>
+	 * A job is a tab-separated line of the input file, stylesheet and output file, followed by any string
+	 * parameters as name=value.  Each job is answered with a tab-separated line of <code>OK</code>, the output
+	 * file and the milliseconds the job took, or of <code>ERROR</code> and the reason it failed.
+	 *
+	 * @param args command line arguments
+	 * @throws Exception if the server can't be started
+	 */
+	private void serve(String[] args) throws Exception {
+		String where = null;
+		for (String arg : args) {
+			if (arg.startsWith("-serve:"))
+				where = arg.substring(7);
+			else
+				throw new IllegalArgumentException("Option " + arg + " is not supported with -serve");
+		}
+
+		if (where.equals("stdin")) {
+			serveJobs(new BufferedReader(new InputStreamReader(System.in, "UTF-8")),
+					new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"), true));
+			return;
+		}
+
+		ServerSocket server = new ServerSocket(Integer.parseInt(where), 50, InetAddress.getByName(null));
+		System.err.println("Serving transform jobs on " + server.getLocalSocketAddress());
+		ExecutorService executor = Executors.newCachedThreadPool();
+		while (true) {
+			final Socket socket = server.accept();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						serveJobs(new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")),
+								new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true));
+					} catch (IOException e) {
+						System.err.println("Transform connection failed: " + e.getMessage());
+					} finally {
+						try {
+							socket.close();
+						} catch (IOException e) {
+							// do nothing
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs each job read from the reader, writing one answer line per job, until the reader ends.
+	 *
+	 * @param in job lines
+	 * @param out answer lines
+	 * @throws IOException if the jobs can't be read
+	 */
+	private static void serveJobs(BufferedReader in, PrintWriter out) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.trim().length() == 0)
+				continue;
+			long start = System.currentTimeMillis();
+			String[] job = line.split("\t");
+			try {
+				if (job.length < 3)
+					throw new IllegalArgumentException("a job needs an input file, a stylesheet and an output file");
+				Map<String, String> params = new LinkedHashMap<String, String>();
+				for (int i = 3; i < job.length; i++) {
+					int eq = job[i].indexOf('=');
+					if (eq <= 0)
+						throw new IllegalArgumentException("bad parameter " + job[i]);
+					params.put(job[i].substring(0, eq), job[i].substring(eq + 1));
+				}
+				transformFile(getTemplatesCache().get(new File(job[1])), params, new File(job[0]), new File(job[2]));
+				out.println("OK\t" + job[2] + "\t" + (System.currentTimeMillis() - start));
+			} catch (Exception e) {
+				out.println("ERROR\t" + String.valueOf(e.getMessage()).replaceAll("\\s+", " "));
+			}
+		}
+	}
+
 }
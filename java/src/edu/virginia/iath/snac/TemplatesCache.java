@@ -0,0 +1,146 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+// Saxon Imports:
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.trans.CompilerInfo;
+
+/**
+ * Cache of compiled stylesheets.  A stylesheet is compiled the first time it is asked for, and the
+ * compiled Templates are reused for as long as neither the stylesheet nor any module it includes or
+ * imports has been modified since.  All stylesheets are compiled with the same factory, so the extension
+ * functions are registered only once.
+ * <p>
+ * Compiled Templates are thread-safe, so one cache can serve many threads; stylesheets are compiled one
+ * at a time.
+ *
+ * @author Robbie Hott
+ */
+public class TemplatesCache {
+
+	private final TransformerFactoryImpl factory;
+	private final Map<String, Entry> cache;
+	private int compiles = 0;
+	private int hits = 0;
+
+	/**
+	 * A compiled stylesheet and the modification times of the files it was compiled from.
+	 */
+	private static class Entry {
+		Templates templates;
+		Map<File, Long> modules;
+	}
+
+	/**
+	 * Constructor: Creates an empty cache that compiles with the given factory.
+	 *
+	 * @param factory Factory to compile stylesheets with, with any extension functions already registered.
+	 */
+	public TemplatesCache(TransformerFactoryImpl factory) {
+		this.factory = factory;
+		cache = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * Gets the compiled stylesheet, compiling it if it is not cached or any of its modules has changed.
+	 *
+	 * @param stylesheet Stylesheet file.
+	 * @return The compiled stylesheet.
+	 * @throws TransformerException if the stylesheet can't be compiled
+	 */
+	public synchronized Templates get(File stylesheet) throws TransformerException {
+		String key;
+		try {
+			key = stylesheet.getCanonicalPath();
+		} catch (IOException e) {
+			key = stylesheet.getAbsolutePath();
+		}
+
+		Entry entry = cache.get(key);
+		if (entry != null && isCurrent(entry)) {
+			hits++;
+			return entry.templates;
+		}
+
+		// Compile, noting each module Saxon loads along the way
+		entry = new Entry();
+		entry.modules = new LinkedHashMap<File, Long>();
+		final Map<File, Long> modules = entry.modules;
+		File main = new File(key);
+		modules.put(main, main.lastModified());
+		// The recording resolver goes on a copy of the compiler settings, not on the shared factory, which
+		// other threads may be using to compile or transform
+		CompilerInfo info = new CompilerInfo(factory.getConfiguration().getDefaultXsltCompilerInfo());
+		final URIResolver resolver = info.getURIResolver();
+		info.setURIResolver(new URIResolver() {
+			@Override
+			public Source resolve(String href, String base) throws TransformerException {
+				try {
+					URI uri = (base == null ? new URI(href) : new URI(base).resolve(href));
+					if ("file".equals(uri.getScheme())) {
+						File module = new File(uri);
+						modules.put(module, module.lastModified());
+					}
+				} catch (Exception e) {
+					// not a file we can watch
+				}
+				// Let the configured resolver, or else Saxon, resolve it as usual
+				return resolver == null ? null : resolver.resolve(href, base);
+			}
+		});
+		entry.templates = factory.newTemplates(new StreamSource(main), info);
+		compiles++;
+		cache.put(key, entry);
+		return entry.templates;
+	}
+
+	/**
+	 * Whether none of the files a stylesheet was compiled from has changed.
+	 *
+	 * @param entry Cache entry.
+	 * @return True if the compiled stylesheet can be reused, false otherwise.
+	 */
+	private static boolean isCurrent(Entry entry) {
+		for (Map.Entry<File, Long> module : entry.modules.entrySet()) {
+			if (module.getKey().lastModified() != module.getValue())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Prints the number of stylesheets compiled and reused.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "Stylesheet cache: " + cache.size() + " stylesheets, " + compiles + " compiles, " + hits + " reuses";
+	}
+}
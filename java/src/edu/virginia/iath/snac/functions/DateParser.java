@@ -16,11 +16,9 @@
  */
 package edu.virginia.iath.snac.functions;
 
-import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.transform.stream.StreamSource;
-
 import org.apache.commons.lang3.StringEscapeUtils;
 
 import edu.virginia.iath.snac.helpers.DateParserHelper;
@@ -32,9 +30,6 @@ import net.sf.saxon.lib.ExtensionFunctionDefinition;
 import net.sf.saxon.om.Sequence;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.expr.XPathContext;
-import net.sf.saxon.s9api.DocumentBuilder;
-import net.sf.saxon.s9api.Processor;
-import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.trans.XPathException;
 
 
@@ -51,6 +46,11 @@ public class DateParser extends ExtensionFunctionDefinition {
 	 */
 	private static final long serialVersionUID = -7035621335523088267L;
 
+	/**
+	 * Local type given to dates that could not be parsed
+	 */
+	private static final String SUSPICIOUS_DATE = "http://socialarchive.iath.virginia.edu/control/term#SuspiciousDate";
+
 
 
 	/**
@@ -136,8 +136,6 @@ public class DateParser extends ExtensionFunctionDefinition {
 		public Sequence call(XPathContext context, Sequence[] arguments)
 		{
 			Sequence seq = null;
-			String xml = "";
-			String suspiciousDate = "http://socialarchive.iath.virginia.edu/control/term#SuspiciousDate";
 			
 			// Read in the argument into a string
 			String dateStr = null;
@@ -147,87 +145,153 @@ public class DateParser extends ExtensionFunctionDefinition {
 				dateStr = "";
 			}
 			
-			try
-			{
-				// Saxon is WONDERFUL and removes escaped characters, so we must re-escape them
-				// Using the Apache Commons Lang's org.apache.commons.lang3.StringEscapeUtils
-				dateStr = StringEscapeUtils.escapeXml(dateStr);
-				
-				DateParserHelper parser = new DateParserHelper(dateStr);
-				
-				// Check to see if the values were parsed
-				if (parser.wasParsed()) {
-					
-					List<SNACDate> dates = parser.getDates();
-					
-					// Build an XML object out of the results
-					xml = "<return>";
-					for (SNACDate d : dates) {
-						// Open the tags
-						if (d.getType() == SNACDate.FROM_DATE)
-							xml += "<dateRange>\n<fromDate";
-						else if (d.getType() == SNACDate.TO_DATE)
-							xml += "<toDate";
-						else
-							xml += "<date";
-						
-						// Add the dates to the XML
-						if (!d.getParsedDate().equals("null"))
-							xml += " standardDate=\"" + d.getParsedDate() + "\"";
-						if (!d.getNotBefore().equals("null"))
-							xml += " notBefore=\"" + d.getNotBefore() + "\"";
-						if (!d.getNotAfter().equals("null"))
-							xml += " notAfter=\"" + d.getNotAfter() + "\"";
-						
-						// Close the open tags
-						xml += ">";
-						
-						// Add the original date passed to Java
-						xml += d.getOriginalDate();
-						
-						// Close the tags
-						if (d.getType() == SNACDate.FROM_DATE)
-							xml += "</fromDate>\n";
-						else if (d.getType() == SNACDate.TO_DATE)
-							xml += "</toDate></dateRange>\n";
-						else
-							xml += "</date>\n";
-					}
-					xml += "</return>";
-					
-					
-					
-				} else {
-					// nothing was parsed
-					xml = "<return>\n";
-					xml += "<date localType=\"" + suspiciousDate + "\">" + parser.getOriginalDate() +"</date>\n";
-					xml += "</return>";
-				}
-				
+			// Saxon is WONDERFUL and removes escaped characters, so we must re-escape them
+			// Using the Apache Commons Lang's org.apache.commons.lang3.StringEscapeUtils
+			dateStr = StringEscapeUtils.escapeXml(dateStr);
+			
+			// Build the result tree out of the parsed dates
+			try {
+				ResultTreeBuilder builder = new ResultTreeBuilder(context);
+				addReturn(builder, parse(dateStr));
+				seq = builder.getResult();
+			} catch (XPathException e) {}
 
+			return seq;
 
-			}
-			catch (Exception sae)
-			{
-				// If something went wrong, then just return the value "unparseable" to Saxon.
-				// nothing was parsed
-				xml = "<return>\n";
-				xml += "<date localType=\"" + suspiciousDate + "\">"+ dateStr + "</date>\n";
-				xml += "</return>";
-			}
-			
+		}
+	}
 
-			// Parse XML into an XdmNode
-			Processor proc = new Processor(false);
-	        DocumentBuilder builder = proc.newDocumentBuilder();
-	        
-	        try {
-	        	XdmNode xdm = builder.build(new StreamSource(new StringReader(xml)));
-	        	seq = xdm.getUnderlyingValue();
-	        } catch (Exception sae) {}
+	/**
+	 * The values written out for one date string.  They are all read from the parser before anything is
+	 * written, since formatting a parsed date can fail, and a failure must not leave a half-written element.
+	 */
+	static class DateReturn {
+		// Values of each parsed date, or null if the string is reported as a suspicious date
+		List<DateValues> dates;
+		// Text of the suspicious date
+		String original;
+	}
 
-			return seq;
+	/**
+	 * The type, normalized dates and original string of one parsed date.
+	 */
+	static class DateValues {
+		int type;
+		String standardDate;
+		String notBefore;
+		String notAfter;
+		String original;
+	}
 
+	/**
+	 * Parses a date string and reads the values to write out for it.  If the parser fails, or a parsed date
+	 * can't be formatted, the string is reported as a suspicious date.
+	 * 
+	 * @param dateStr escaped original date string
+	 * @return Values to write out for the date string.
+	 */
+	static DateReturn parse(String dateStr) {
+		DateReturn ret = new DateReturn();
+		try {
+			DateParserHelper parser = new DateParserHelper(dateStr);
+			ret.original = parser.getOriginalDate();
+			
+			// Check to see if the values were parsed
+			if (parser.wasParsed()) {
+				List<DateValues> dates = new ArrayList<DateValues>();
+				for (SNACDate d : parser.getDates()) {
+					DateValues values = new DateValues();
+					values.type = d.getType();
+					values.standardDate = d.getParsedDate();
+					values.notBefore = d.getNotBefore();
+					values.notAfter = d.getNotAfter();
+					values.original = d.getOriginalDate();
+					dates.add(values);
+				}
+				ret.dates = dates;
+			}
+		} catch (Exception e) {
+			// If something went wrong, then just return the value "unparseable" to Saxon.
+			ret.dates = null;
+			ret.original = dateStr;
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds the return element for one date string to the result, holding its parsed dates and date ranges,
+	 * or a suspicious date if it couldn't be parsed.  The newlines the stylesheets have always received
+	 * between the elements are kept as text nodes.
+	 * 
+	 * @param builder result tree being built
+	 * @param ret values read from the parser by <code>parse</code>
+	 * @throws XPathException if the element could not be added
+	 */
+	static void addReturn(ResultTreeBuilder builder, DateReturn ret) throws XPathException {
+		builder.startElement("return");
+		
+		if (ret.dates != null) {
+			for (DateValues d : ret.dates) {
+				addDate(builder, d);
+			}
+		} else {
+			// nothing was parsed
+			builder.characters("\n");
+			addSuspiciousDate(builder, ret.original);
 		}
+		
+		builder.endElement();
+	}
+	
+	/**
+	 * Adds the date, fromDate or toDate element for a parsed date to the result.  A fromDate opens
+	 * a dateRange element, which is closed by the following toDate.
+	 * 
+	 * @param builder result tree being built
+	 * @param d values of the parsed date
+	 * @throws XPathException if the date could not be added
+	 */
+	private static void addDate(ResultTreeBuilder builder, DateValues d) throws XPathException {
+		// Open the tags
+		if (d.type == SNACDate.FROM_DATE) {
+			builder.startElement("dateRange");
+			builder.characters("\n");
+			builder.startElement("fromDate");
+		} else if (d.type == SNACDate.TO_DATE)
+			builder.startElement("toDate");
+		else
+			builder.startElement("date");
+		
+		// Add the dates to the element
+		if (!d.standardDate.equals("null"))
+			builder.attribute("standardDate", d.standardDate);
+		if (!d.notBefore.equals("null"))
+			builder.attribute("notBefore", d.notBefore);
+		if (!d.notAfter.equals("null"))
+			builder.attribute("notAfter", d.notAfter);
+		
+		// Add the original date passed to Java (it was escaped for the parser)
+		builder.characters(StringEscapeUtils.unescapeXml(d.original));
+		
+		// Close the tags
+		builder.endElement();
+		if (d.type == SNACDate.TO_DATE)
+			builder.endElement();
+		builder.characters("\n");
+	}
+	
+	/**
+	 * Adds a date element marked as a suspicious date to the result, for strings that could not be parsed.
+	 * 
+	 * @param builder result tree being built
+	 * @param dateStr escaped original date string
+	 * @throws XPathException if the date could not be added
+	 */
+	private static void addSuspiciousDate(ResultTreeBuilder builder, String dateStr) throws XPathException {
+		builder.startElement("date");
+		builder.attribute("localType", SUSPICIOUS_DATE);
+		builder.characters(StringEscapeUtils.unescapeXml(dateStr));
+		builder.endElement();
+		builder.characters("\n");
 	}
 }
@@ -0,0 +1,167 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.functions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+//Saxon Imports
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.trans.XPathException;
+
+
+/**
+ * Date parser SAXON extension for a whole sequence of date strings.
+ *
+ * Each distinct date string is parsed once, in the same way as <code>saxext:date-parser</code>, and the
+ * results are returned in one tree with a return element per input string, in input order.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class DateParserBatch extends ExtensionFunctionDefinition {
+
+	/**
+	 * Required serializer field
+	 */
+	private static final long serialVersionUID = 2771937461823045117L;
+
+
+
+	/**
+	 * Define the function name for saxon's XSLT parser
+	 */
+	@Override
+	public StructuredQName getFunctionQName()
+	{
+		return new StructuredQName("saxext", "http://example.com/saxon-extension", "parse-dates");
+	}
+
+	/**
+	 * Define the argument types accepted by the function
+	 */
+	@Override
+	public net.sf.saxon.value.SequenceType[] getArgumentTypes()
+	{
+		return new net.sf.saxon.value.SequenceType[] {
+				net.sf.saxon.value.SequenceType.STRING_SEQUENCE	// First and only parameter is a sequence of strings
+			};
+	}
+
+	/**
+	 * Define the result type returned by the function
+	 */
+	@Override
+	public net.sf.saxon.value.SequenceType getResultType(net.sf.saxon.value.SequenceType[] suppliedArgumentTypes)
+	{
+		return net.sf.saxon.value.SequenceType.ANY_SEQUENCE;	// Returns a sequence (of strings)
+	}
+
+	/**
+	 * Method that instantiates the Extension's function
+	 */
+	@Override
+	public ExtensionFunctionCall makeCallExpression()
+	{
+		return new FunctionCall();
+	}
+
+	/**
+	 * Define the class that contains the JAVA function call.
+	 *
+	 * @author Robbie Hott
+	 *
+	 */
+	private static class FunctionCall extends ExtensionFunctionCall
+	{
+		/**
+		 * Required serialization string
+		 */
+		private static final long serialVersionUID = 6150849236624613289L;
+
+		/**
+		 * Function call method.  This is what actually performs the action of the function call
+		 *
+		 * The function will return valid XML, consisting of one return element per input string, each
+		 * the same as the result of <code>saxext:date-parser</code> for that string:
+		 *
+		 * <return>
+		 * 		<date>...</date>
+		 * </return>
+		 * <return>
+		 * 	  <dateRange>
+		 * 		<fromDate>...</fromDate>
+		 * 		<toDate>...</toDate>
+		 * 	  </dateRange>
+		 * </return>
+		 * ...
+		 *
+		 *
+		 * @param context the context of the call
+		 * @param arguments the arguments supplied to the call
+		 * @return Sequence the output of the call
+		 *
+		 */
+		@Override
+		public Sequence call(XPathContext context, Sequence[] arguments)
+		{
+			Sequence seq = null;
+
+			// Read in each of the strings in the argument
+			List<String> dates = new ArrayList<String>();
+			try {
+				SequenceIterator<? extends Item> itr = arguments[0].iterate();
+				Item item;
+				while ((item = itr.next()) != null) {
+					// Saxon is WONDERFUL and removes escaped characters, so we must re-escape them
+					dates.add(StringEscapeUtils.escapeXml(item.getStringValue()));
+				}
+			} catch (XPathException e) {
+				// use the strings read so far
+			}
+
+			// Parse each distinct string once
+			Map<String, DateParser.DateReturn> parsed = new HashMap<String, DateParser.DateReturn>();
+			for (String dateStr : dates) {
+				if (!parsed.containsKey(dateStr))
+					parsed.put(dateStr, DateParser.parse(dateStr));
+			}
+
+			// Build the result tree out of the parsed dates
+			try {
+				ResultTreeBuilder builder = new ResultTreeBuilder(context);
+				for (String dateStr : dates) {
+					DateParser.addReturn(builder, parsed.get(dateStr));
+				}
+				seq = builder.getResult();
+			} catch (XPathException e) {}
+
+			return seq;
+
+		}
+	}
+}
@@ -16,10 +16,11 @@
  */
 package edu.virginia.iath.snac.functions;
 
-import java.io.StringReader;
-import javax.xml.transform.stream.StreamSource;
+import java.util.Map;
 
 import edu.virginia.iath.snac.helpers.GeoNamesHelper;
+import edu.virginia.iath.snac.helpers.GeoNamesLookup;
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
 
 //Saxon Imports
 import net.sf.saxon.lib.ExtensionFunctionCall;
@@ -27,9 +28,6 @@ import net.sf.saxon.lib.ExtensionFunctionDefinition;
 import net.sf.saxon.om.Sequence;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.expr.XPathContext;
-import net.sf.saxon.s9api.DocumentBuilder;
-import net.sf.saxon.s9api.Processor;
-import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.trans.XPathException;
 
 
@@ -138,9 +136,6 @@ public class GeoNamesCheshire extends ExtensionFunctionDefinition {
 		public Sequence call(XPathContext context, Sequence[] arguments)
 		{
 			Sequence seq = null;
-			String xml = "";
-			boolean success = false;;
-			GeoNamesHelper helper = new GeoNamesHelper();
 
 			// Read in the argument into a string
 			String locationStr = null;
@@ -152,50 +147,68 @@ public class GeoNamesCheshire extends ExtensionFunctionDefinition {
 			
 			// Saxon is WONDERFUL and removes escaped characters, so we must re-escape them
 			// Using the Apache Commons Lang's org.apache.commons.lang3.StringEscapeUtils
-			locationStr = helper.cleanString(locationStr, false);
+			locationStr = new GeoNamesHelper().cleanString(locationStr, false);
 			
-			// Connect to Cheshire
-			helper.connect();
+			GeoNamesResult result = GeoNamesLookup.getInstance().lookup(locationStr);
 			
-			success = helper.queryCheshire(locationStr);
-			
-			helper.disconnect();
-
-			
-			// Build the result
-			if (success) {
-				// Build an XML object out of the results
-				xml = "<return original=\""+locationStr+"\" score=\"" + helper.getConfidence() + "\">";
-				xml += "<score>" + helper.getConfidence() + "</score>";
-				//xml += "<searchLevel>" + helper.getLevelOfSearch() + "</searchLevel>";
-				xml += helper.getTopReturnResult();
-				xml += "<otherResults>" + helper.getNextUniqueReturnResults(20) + "</otherResults>";
-				
-				xml += "</return>";
-			}
-			else
-			{
-				// If something went wrong, then just return an empty XML.
-				// nothing was parsed
-				xml = "<return>\n";
-				xml += "</return>";
-			}
-
-			xml = xml.replace("&", "&amp;");
-
-			// Parse XML into an XdmNode
-			Processor proc = new Processor(false);
-			DocumentBuilder builder = proc.newDocumentBuilder();
-
+			// Build the result tree
 			try {
-				XdmNode xdm = builder.build(new StreamSource(new StringReader(xml)));
-				seq = xdm.getUnderlyingValue();
-			} catch (Exception sae) {}
+				ResultTreeBuilder builder = new ResultTreeBuilder(context);
+				addReturn(builder, locationStr, result);
+				seq = builder.getResult();
+			} catch (XPathException e) {}
 
 			return seq;
 
 		}
+	}
 
+	/**
+	 * Adds the return element for one looked up place to the result.  If nothing was found, the return
+	 * element is empty.
+	 * 
+	 * @param builder result tree being built
+	 * @param locationStr cleaned place string that was looked up
+	 * @param result result of the lookup
+	 * @throws XPathException if the element could not be added
+	 */
+	static void addReturn(ResultTreeBuilder builder, String locationStr, GeoNamesResult result) throws XPathException {
+		builder.startElement("return");
+		if (result.wasFound()) {
+			String confidence = Double.toString(result.getConfidence());
+			builder.attribute("original", locationStr);
+			builder.attribute("score", confidence);
+			builder.element("score", confidence);
+			addPlace(builder, result.getTop());
+			builder.startElement("otherResults");
+			for (Map<String, String> place : result.getOthers()) {
+				builder.startElement("place");
+				addPlace(builder, place);
+				builder.endElement();
+				builder.characters("\n");
+			}
+			builder.endElement();
+		} else {
+			// If something went wrong, then just return an empty return element (holding a newline, as always).
+			builder.characters("\n");
+		}
+		builder.endElement();
+	}
 
+	/**
+	 * Adds the elements for a single GeoNames place to the element currently open in the result.
+	 * 
+	 * @param builder result tree being built
+	 * @param place return element names and values of the place, or null if it couldn't be parsed
+	 * @throws XPathException if the place could not be added
+	 */
+	private static void addPlace(ResultTreeBuilder builder, Map<String, String> place) throws XPathException {
+		if (place == null) {
+			builder.element("error", "Couldn't parse geonames result correctly.");
+			return;
+		}
+		for (Map.Entry<String, String> value : place.entrySet()) {
+			builder.element(value.getKey(), value.getValue());
+		}
 	}
 }
@@ -0,0 +1,249 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.functions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import edu.virginia.iath.snac.helpers.GeoNamesHelper;
+import edu.virginia.iath.snac.helpers.GeoNamesLookup;
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
+
+//Saxon Imports
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.trans.XPathException;
+
+
+/**
+ * Cheshire GeoNames SAXON extension for a whole sequence of place strings.
+ *
+ * Each distinct place string is looked up once, in the same way as <code>saxext:geonames-cheshire</code>,
+ * and the results are returned in one tree with a return element per input string, in input order.
+ * The lookups of a call may be run in parallel by setting the <code>snac.geonames.batchThreads</code>
+ * system property (default 1); they run on one thread pool shared by all calls, and share the pooled
+ * cheshire connections.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class GeoNamesCheshireBatch extends ExtensionFunctionDefinition {
+
+	private static ExecutorService executor = null;
+
+	/**
+	 * Gets the thread pool shared by all calls, creating it with <code>snac.geonames.batchThreads</code>
+	 * threads on first use.  The threads are daemons, so they don't keep the JVM running.
+	 *
+	 * @return The shared thread pool.
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Integer.getInteger("snac.geonames.batchThreads", 1), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "geonames-batch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Required serializer field
+	 */
+	private static final long serialVersionUID = 4520367261318476102L;
+
+
+
+	/**
+	 * Define the function name for saxon's XSLT parser
+	 */
+	@Override
+	public StructuredQName getFunctionQName()
+	{
+		return new StructuredQName("saxext", "http://example.com/saxon-extension", "geonames-cheshire-batch");
+	}
+
+	/**
+	 * Define the argument types accepted by the function
+	 */
+	@Override
+	public net.sf.saxon.value.SequenceType[] getArgumentTypes()
+	{
+		return new net.sf.saxon.value.SequenceType[] {
+				net.sf.saxon.value.SequenceType.STRING_SEQUENCE	// First and only parameter is a sequence of strings
+		};
+	}
+
+	/**
+	 * Define the result type returned by the function
+	 */
+	@Override
+	public net.sf.saxon.value.SequenceType getResultType(net.sf.saxon.value.SequenceType[] suppliedArgumentTypes)
+	{
+		return net.sf.saxon.value.SequenceType.ANY_SEQUENCE;	// Returns a sequence (of strings)
+	}
+
+	/**
+	 * Method that instantiates the Extension's function
+	 */
+	@Override
+	public ExtensionFunctionCall makeCallExpression()
+	{
+		return new FunctionCall();
+	}
+
+	/**
+	 * Define the class that contains the JAVA function call.
+	 * @author Robbie Hott
+	 *
+	 */
+	private static class FunctionCall extends ExtensionFunctionCall
+	{
+		/**
+		 * Required serialization string
+		 */
+		private static final long serialVersionUID = -1638302574907412753L;
+
+		/**
+		 * Function call method.  This is what actually performs the action of the function call
+		 *
+		 * The function will return valid XML, consisting of one return element per input string, each
+		 * the same as the result of <code>saxext:geonames-cheshire</code> for that string:
+		 *
+		 * <pre>
+		 * {@code
+		 * <return original="First Query String" score="Confidence">
+		 * 		...
+		 * </return>
+		 * <return original="Second Query String" score="Confidence">
+		 * 		...
+		 * </return>
+		 * ...
+		 * }
+		 * </pre>
+		 *
+		 *
+		 * @param context the context of the call
+		 * @param arguments the arguments supplied to the call
+		 * @return Sequence the GeoNames result(s)
+		 *
+		 */
+		@Override
+		public Sequence call(XPathContext context, Sequence[] arguments)
+		{
+			Sequence seq = null;
+			GeoNamesHelper helper = new GeoNamesHelper();
+
+			// Read in and clean each of the strings in the argument
+			List<String> locations = new ArrayList<String>();
+			try {
+				SequenceIterator<? extends Item> itr = arguments[0].iterate();
+				Item item;
+				while ((item = itr.next()) != null) {
+					locations.add(helper.cleanString(item.getStringValue(), false));
+				}
+			} catch (XPathException e) {
+				// use the strings read so far
+			}
+
+			// Look up each distinct string once
+			Map<String, GeoNamesResult> results = lookupAll(new LinkedHashSet<String>(locations));
+
+			// Build the result tree
+			try {
+				ResultTreeBuilder builder = new ResultTreeBuilder(context);
+				for (String locationStr : locations) {
+					GeoNamesCheshire.addReturn(builder, locationStr, results.get(locationStr));
+				}
+				seq = builder.getResult();
+			} catch (XPathException e) {}
+
+			return seq;
+
+		}
+
+		/**
+		 * Looks up each of the place strings, in parallel if <code>snac.geonames.batchThreads</code> is
+		 * more than 1.
+		 *
+		 * @param locations distinct cleaned place strings
+		 * @return Map of place strings to their results
+		 */
+		private Map<String, GeoNamesResult> lookupAll(Collection<String> locations) {
+			Map<String, GeoNamesResult> results = new HashMap<String, GeoNamesResult>();
+			int threads = Math.min(Integer.getInteger("snac.geonames.batchThreads", 1), locations.size());
+
+			if (threads <= 1) {
+				for (String locationStr : locations) {
+					results.put(locationStr, GeoNamesLookup.getInstance().lookup(locationStr));
+				}
+				return results;
+			}
+
+			ExecutorService executor = getExecutor();
+			Map<String, Future<GeoNamesResult>> futures = new HashMap<String, Future<GeoNamesResult>>();
+			try {
+				for (final String locationStr : locations) {
+					futures.put(locationStr, executor.submit(new Callable<GeoNamesResult>() {
+						@Override
+						public GeoNamesResult call() {
+							return GeoNamesLookup.getInstance().lookup(locationStr);
+						}
+					}));
+				}
+				for (Map.Entry<String, Future<GeoNamesResult>> future : futures.entrySet()) {
+					GeoNamesResult result;
+					try {
+						result = future.getValue().get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						result = GeoNamesResult.EMPTY;
+					} catch (ExecutionException e) {
+						result = GeoNamesResult.EMPTY;
+					}
+					results.put(future.getKey(), result);
+				}
+			} finally {
+				// Don't start lookups of an interrupted call that are still queued on the shared pool
+				for (Future<GeoNamesResult> future : futures.values()) {
+					future.cancel(false);
+				}
+			}
+			return results;
+		}
+
+	}
+}
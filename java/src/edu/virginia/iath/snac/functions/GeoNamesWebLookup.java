@@ -16,16 +16,10 @@
  */
 package edu.virginia.iath.snac.functions;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.net.URL;
+import java.util.Map;
 
-import javax.xml.transform.stream.StreamSource;
-
-import org.apache.commons.lang3.StringEscapeUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import edu.virginia.iath.snac.helpers.GeoNamesWebClient;
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
 
 //Saxon Imports
 import net.sf.saxon.lib.ExtensionFunctionCall;
@@ -33,9 +27,6 @@ import net.sf.saxon.lib.ExtensionFunctionDefinition;
 import net.sf.saxon.om.Sequence;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.expr.XPathContext;
-import net.sf.saxon.s9api.DocumentBuilder;
-import net.sf.saxon.s9api.Processor;
-import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.trans.XPathException;
 
 
@@ -125,7 +116,6 @@ public class GeoNamesWebLookup extends ExtensionFunctionDefinition {
 		public Sequence call(XPathContext context, Sequence[] arguments)
 		{
 			Sequence seq = null;
-			String xml = "";
 			
 			// Read in the argument into a string
 			String locationStr = null;
@@ -134,64 +124,39 @@ public class GeoNamesWebLookup extends ExtensionFunctionDefinition {
 			} catch (XPathException e) {
 				locationStr = "";
 			}
+			String original = locationStr;
 			
 			try
 			{
-				// Saxon is WONDERFUL and removes escaped characters, so we must re-escape them
-				// Using the Apache Commons Lang's org.apache.commons.lang3.StringEscapeUtils
-				locationStr = StringEscapeUtils.escapeXml(locationStr);
-				
-				String line; String json = "";
-				URL url = new URL("http://api.geonames.org/search?q=" + locationStr + "&maxRows=1&username=rwb3y&type=json");
-				BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream()));
-				while ((line = in.readLine()) != null) {
-					json += line;
-				}
-				JSONObject obj = new JSONObject(json);
+				// The shared client escapes the string for the cache and encodes it for the request
+				GeoNamesResult result = GeoNamesWebClient.getInstance().lookup(locationStr);
 				
-				if (obj != null && obj.has("geonames") && !obj.isNull("geonames")) {
-					// read the first item
-					JSONArray res = obj.getJSONArray("geonames");
-					JSONObject cur = res.getJSONObject(0); // read in the first one
-					
-					// Build an XML object out of the results
-					xml = "<return original=\""+locationStr+"\">";
-					xml += "<geonamesid>"+cur.getInt("geonameId")+"</geonamesid>";
-					xml += "<name>"+cur.getString("name")+"</name>";
-					xml += "<admincode1>"+cur.getString("adminCode1")+"</admincode1>";
-					xml += "<country>"+cur.getString("countryName")+"</country>";
-					xml += "<lat>"+cur.getDouble("lat")+"</lat>";
-					xml += "<lon>"+cur.getDouble("lng")+"</lon>";
-					xml += "</return>";
-					
-					
-					
-				} else {
-					// nothing was parsed
-					xml = "<return original=\""+locationStr+"\">";
-					xml += "</return>";
+				ResultTreeBuilder builder = new ResultTreeBuilder(context);
+				builder.startElement("return");
+				builder.attribute("original", original);
+				if (result.wasFound()) {
+					// Build the result tree out of the results
+					for (Map.Entry<String, String> value : result.getTop().entrySet()) {
+						builder.element(value.getKey(), value.getValue());
+					}
 				}
-				
-
+				// else nothing was parsed
+				builder.endElement();
+				seq = builder.getResult();
 
 			}
 			catch (Exception sae)
 			{
-				// If something went wrong, then just return the value "unparseable" to Saxon.
+				// If something went wrong, then just return an empty return element to Saxon.
 				// nothing was parsed
-				xml = "<return>\n";
-				xml += "</return>";
+				try {
+					ResultTreeBuilder builder = new ResultTreeBuilder(context);
+					builder.startElement("return");
+					builder.characters("\n");
+					builder.endElement();
+					seq = builder.getResult();
+				} catch (XPathException e) {}
 			}
-			
-
-			// Parse XML into an XdmNode
-			Processor proc = new Processor(false);
-	        DocumentBuilder builder = proc.newDocumentBuilder();
-	        
-	        try {
-	        	XdmNode xdm = builder.build(new StreamSource(new StringReader(xml)));
-	        	seq = xdm.getUnderlyingValue();
-	        } catch (Exception sae) {}
 
 			return seq;
 
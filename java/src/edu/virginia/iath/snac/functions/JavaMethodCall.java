@@ -16,13 +16,8 @@
  */
 package edu.virginia.iath.snac.functions;
 
-import java.io.StringReader;
-
-import javax.xml.transform.stream.StreamSource;
-
 import java.lang.reflect.Method;
 
-
 //Saxon Imports
 import net.sf.saxon.lib.ExtensionFunctionCall;
 import net.sf.saxon.lib.ExtensionFunctionDefinition;
@@ -31,9 +26,6 @@ import net.sf.saxon.om.Sequence;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.expr.XPathContext;
-import net.sf.saxon.s9api.DocumentBuilder;
-import net.sf.saxon.s9api.Processor;
-import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.trans.XPathException;
 
 
@@ -123,7 +115,6 @@ public class JavaMethodCall extends ExtensionFunctionDefinition {
 		public Sequence call(XPathContext context, Sequence[] arguments)
 		{
 			Sequence seq = null;
-			String xml = "";
 			
 			// Read in the argument into a string
 			String className = null;
@@ -138,20 +129,13 @@ public class JavaMethodCall extends ExtensionFunctionDefinition {
 			
 			
 					
-					// Build an XML object out of the results
-					xml = "<return>";
-					xml += "</return>";
-					
-			
-
-			// Parse XML into an XdmNode
-			Processor proc = new Processor(false);
-	        DocumentBuilder builder = proc.newDocumentBuilder();
-	        
-	        try {
-	        	XdmNode xdm = builder.build(new StreamSource(new StringReader(xml)));
-	        	seq = xdm.getUnderlyingValue();
-	        } catch (Exception sae) {}
+			// Build the result tree
+			try {
+				ResultTreeBuilder builder = new ResultTreeBuilder(context);
+				builder.startElement("return");
+				builder.endElement();
+				seq = builder.getResult();
+			} catch (XPathException e) {}
 
 			return seq;
 
@@ -0,0 +1,146 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.functions;
+
+//Saxon Imports
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.NoNamespaceName;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.TinyBuilder;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.Untyped;
+
+
+/**
+ * Builds the result trees returned by the extension functions.  The elements, attributes and text
+ * of the result are sent as events straight into a TinyTree builder that uses the Configuration of
+ * the calling transform, so no XML string is written or parsed per call.
+ * <p>
+ * Usage follows the order of the XML being built:
+ * <pre>
+ * {@code
+ * ResultTreeBuilder builder = new ResultTreeBuilder(context);
+ * builder.startElement("return");
+ * builder.attribute("original", str);
+ * builder.element("name", name);
+ * builder.endElement();
+ * return builder.getResult();
+ * }
+ * </pre>
+ *
+ * @author Robbie Hott
+ *
+ */
+final class ResultTreeBuilder {
+
+	private TinyBuilder builder;
+	private boolean inStartTag = false;
+
+	/**
+	 * Constructor.  Opens a new document in a TinyTree built with the calling transform's Configuration.
+	 *
+	 * @param context the context of the extension function call
+	 * @throws XPathException if the document could not be started
+	 */
+	public ResultTreeBuilder(XPathContext context) throws XPathException {
+		builder = new TinyBuilder(context.getConfiguration().makePipelineConfiguration());
+		builder.open();
+		builder.startDocument(0);
+	}
+
+	/**
+	 * Opens an element.  Attributes may be added until content is written to it.
+	 *
+	 * @param name local name of the element
+	 * @throws XPathException if the builder rejects the event
+	 */
+	public void startElement(String name) throws XPathException {
+		startContent();
+		builder.startElement(new NoNamespaceName(name), Untyped.getInstance(), 0, 0);
+		inStartTag = true;
+	}
+
+	/**
+	 * Adds an attribute to the element that was just opened.
+	 *
+	 * @param name local name of the attribute
+	 * @param value value of the attribute
+	 * @throws XPathException if the builder rejects the event
+	 */
+	public void attribute(String name, String value) throws XPathException {
+		builder.attribute(new NoNamespaceName(name), BuiltInAtomicType.UNTYPED_ATOMIC, value, 0, 0);
+	}
+
+	/**
+	 * Writes text content to the open element.  Null and empty strings are ignored.
+	 *
+	 * @param text text to write
+	 * @throws XPathException if the builder rejects the event
+	 */
+	public void characters(String text) throws XPathException {
+		if (text == null || text.isEmpty())
+			return;
+		startContent();
+		builder.characters(text, 0, 0);
+	}
+
+	/**
+	 * Closes the most recently opened element.
+	 *
+	 * @throws XPathException if the builder rejects the event
+	 */
+	public void endElement() throws XPathException {
+		startContent();
+		builder.endElement();
+	}
+
+	/**
+	 * Writes a complete element containing only text.
+	 *
+	 * @param name local name of the element
+	 * @param text text content of the element
+	 * @throws XPathException if the builder rejects the event
+	 */
+	public void element(String name, String text) throws XPathException {
+		startElement(name);
+		characters(text);
+		endElement();
+	}
+
+	/**
+	 * Closes the document and returns it.  All elements must have been closed.
+	 *
+	 * @return Sequence containing the document node
+	 * @throws XPathException if the document could not be completed
+	 */
+	public Sequence getResult() throws XPathException {
+		builder.endDocument();
+		builder.close();
+		return builder.getCurrentRoot();
+	}
+
+	/**
+	 * Ends the start tag of the open element, if there is one, before any content is written.
+	 */
+	private void startContent() {
+		if (inStartTag) {
+			builder.startContent();
+			inStartTag = false;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+/**
+ * A single initialized session with Cheshire.  The session is opened and the Cheshire <code>init</code>
+ * handshake is performed once, when the connection is created, so that the session can be reused for
+ * many queries by way of the <code>CheshireConnectionPool</code>.
+ *
+ * @author Robbie Hott
+ */
+public class CheshireConnection {
+	private Socket cheshire;
+	private PrintWriter out;
+	private BufferedReader in;
+	private long lastUsed;
+	private boolean broken = false;
+
+	/**
+	 * Constructor: Connects to cheshire via a Socket on the given host and port, and initializes cheshire.
+	 *
+	 * @param host Host name of the Cheshire server.
+	 * @param port Port of the Cheshire server.
+	 * @param readTimeout Milliseconds to wait for each read from cheshire, or 0 to wait forever.
+	 * @throws IOException if the connection could not be made or cheshire did not respond to init.
+	 */
+	public CheshireConnection(String host, int port, int readTimeout) throws IOException {
+		cheshire = new Socket(host, port);
+		// A read that times out throws, instead of hanging the lookup on a stalled server
+		cheshire.setSoTimeout(readTimeout);
+		out =
+				new PrintWriter(cheshire.getOutputStream(), true);
+		in =
+				new BufferedReader(
+						new InputStreamReader(cheshire.getInputStream()));
+
+		// Init cheshire
+		out.println("init");
+		// Read the connection info off the buffer
+		if (in.readLine() == null) {
+			cheshire.close();
+			throw new IOException("Cheshire closed the connection during init");
+		}
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Gets the writer used to send commands to cheshire.
+	 *
+	 * @return Writer for cheshire commands.
+	 */
+	public PrintWriter getWriter() {
+		return out;
+	}
+
+	/**
+	 * Gets the reader used to read cheshire's responses.
+	 *
+	 * @return Reader for cheshire responses.
+	 */
+	public BufferedReader getReader() {
+		return in;
+	}
+
+	/**
+	 * Marks this connection as broken, for example when cheshire closed the stream or stopped answering in
+	 * the middle of a query.  The socket is closed at once, so every later read or write on it fails right
+	 * away instead of waiting out the read timeout or reading a late reply to an earlier command.  Broken
+	 * connections are not reused.
+	 */
+	public void markBroken() {
+		broken = true;
+		try {
+			cheshire.close();
+		} catch (IOException e) {
+			// do nothing
+		}
+	}
+
+	/**
+	 * Whether this connection has been marked broken.
+	 *
+	 * @return True if the connection is broken, false otherwise.
+	 */
+	public boolean isBroken() {
+		return broken;
+	}
+
+	/**
+	 * Marks the connection as just used, for idle time calculation.
+	 */
+	public void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Gets the number of milliseconds since this connection was last used.
+	 *
+	 * @return Idle time in milliseconds.
+	 */
+	public long getIdleTime() {
+		return System.currentTimeMillis() - lastUsed;
+	}
+
+	/**
+	 * Checks whether this connection can be reused.  A connection is unhealthy if it has been marked broken,
+	 * if the socket is closed, or if there is unread data from a previous query waiting on the socket (which
+	 * would otherwise be read as the answer to the next query).
+	 *
+	 * @return True if the connection is usable, false otherwise.
+	 */
+	public boolean isHealthy() {
+		if (broken || cheshire.isClosed() || !cheshire.isConnected() || cheshire.isInputShutdown() || out.checkError())
+			return false;
+		try {
+			return !in.ready();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Closes the cheshire session and the Socket connection.
+	 */
+	public void close() {
+		try {
+			// close cheshire
+			out.println("close");
+			out.close();
+			cheshire.close();
+		} catch (Exception e) {
+			// do nothing
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of initialized Cheshire sessions shared by all GeoNamesHelper instances and threads.  Connecting
+ * to cheshire and running its <code>init</code> handshake is done once per pooled connection instead of
+ * once per place lookup.
+ * <p>
+ * The pool is configured with the following system properties:
+ * <ul>
+ * <li> <code>snac.cheshire.host</code>: Cheshire host name (default localhost)
+ * <li> <code>snac.cheshire.port</code>: Cheshire port (default 7010)
+ * <li> <code>snac.cheshire.poolSize</code>: Maximum number of open connections (default 4)
+ * <li> <code>snac.cheshire.idleTimeout</code>: Milliseconds an unused connection is kept open (default 60000)
+ * <li> <code>snac.cheshire.borrowTimeout</code>: Milliseconds to wait for a free connection (default 30000)
+ * <li> <code>snac.cheshire.readTimeout</code>: Milliseconds to wait for each read from cheshire, 0 for no limit (default 60000)
+ * </ul>
+ *
+ * @author Robbie Hott
+ */
+public class CheshireConnectionPool {
+	private static CheshireConnectionPool instance = null;
+
+	private final String host;
+	private final int port;
+	private final int maxSize;
+	private final long idleTimeout;
+	private final long borrowTimeout;
+	private final int readTimeout;
+
+	// Idle connections, most recently used first
+	private final LinkedBlockingDeque<CheshireConnection> idle;
+	// One permit per connection that may be open
+	private final Semaphore permits;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor: Creates an empty pool.  Connections are opened as they are needed.
+	 *
+	 * @param host Host name of the Cheshire server.
+	 * @param port Port of the Cheshire server.
+	 * @param maxSize Maximum number of connections open at once.
+	 * @param idleTimeout Milliseconds an unused connection is kept open.
+	 * @param borrowTimeout Milliseconds to wait for a connection when all are in use.
+	 * @param readTimeout Milliseconds to wait for each read from cheshire, or 0 to wait forever.
+	 */
+	public CheshireConnectionPool(String host, int port, int maxSize, long idleTimeout, long borrowTimeout,
+			int readTimeout) {
+		this.host = host;
+		this.port = port;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.borrowTimeout = borrowTimeout;
+		this.readTimeout = readTimeout;
+		idle = new LinkedBlockingDeque<CheshireConnection>();
+		permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Gets the shared pool, creating it from the system properties on first use.  The shared pool's
+	 * connections are closed when the JVM exits.
+	 *
+	 * @return The shared connection pool.
+	 */
+	public static synchronized CheshireConnectionPool getInstance() {
+		if (instance == null) {
+			instance = new CheshireConnectionPool(
+					System.getProperty("snac.cheshire.host", "localhost"),
+					Integer.getInteger("snac.cheshire.port", 7010),
+					Integer.getInteger("snac.cheshire.poolSize", 4),
+					Long.getLong("snac.cheshire.idleTimeout", 60000),
+					Long.getLong("snac.cheshire.borrowTimeout", 30000),
+					Integer.getInteger("snac.cheshire.readTimeout", 60000));
+
+			final CheshireConnectionPool pool = instance;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					pool.close();
+				}
+			});
+		}
+		return instance;
+	}
+
+	/**
+	 * Borrows a connection from the pool.  An idle connection is reused if there is a healthy one, otherwise
+	 * a new connection is opened.  Blocks if <code>maxSize</code> connections are already in use.
+	 *
+	 * @return Initialized cheshire connection, or null if none could be obtained.
+	 */
+	public CheshireConnection borrow() {
+		try {
+			if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS))
+				return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		evictIdle();
+
+		// Reuse the most recently used connection that is still healthy
+		CheshireConnection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			if (connection.isHealthy()) {
+				connection.touch();
+				return connection;
+			}
+			connection.close();
+		}
+
+		// No idle connections, so open a new one
+		try {
+			return new CheshireConnection(host, port, readTimeout);
+		} catch (Exception e) {
+			permits.release();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool.  Unhealthy connections are closed rather than kept.
+	 *
+	 * @param connection Connection obtained from <code>borrow</code>.
+	 */
+	public void release(CheshireConnection connection) {
+		if (connection == null)
+			return;
+		if (!closed && connection.isHealthy()) {
+			connection.touch();
+			idle.offerFirst(connection);
+		} else {
+			connection.close();
+		}
+		permits.release();
+	}
+
+	/**
+	 * Closes idle connections that have not been used within the idle timeout.
+	 */
+	public void evictIdle() {
+		Iterator<CheshireConnection> itr = idle.descendingIterator();
+		while (itr.hasNext()) {
+			CheshireConnection connection = itr.next();
+			if (connection.getIdleTime() > idleTimeout && idle.removeLastOccurrence(connection))
+				connection.close();
+		}
+	}
+
+	/**
+	 * Closes all idle connections.  Connections currently borrowed are closed when they are released.
+	 */
+	public void close() {
+		closed = true;
+		CheshireConnection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Gets the number of idle connections in the pool.
+	 *
+	 * @return Number of idle connections.
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Gets the number of connections currently borrowed from the pool.
+	 *
+	 * @return Number of borrowed connections.
+	 */
+	public int getActiveCount() {
+		return maxSize - permits.availablePermits();
+	}
+}
@@ -16,6 +16,10 @@
  */
 package edu.virginia.iath.snac.helpers;
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -34,7 +38,29 @@ public class DateParserHelper {
 	private String original = null;
 	private ArrayList<SNACDate> dates = null;
 
-	
+	// Patterns used when splitting the date string
+	private static final Pattern COMMA_SEPARATOR = Pattern.compile("[ .]*,[ .]*");
+	private static final Pattern YEAR = Pattern.compile("\\d{3}\\d*");
+	private static final Pattern YEAR_RANGE = Pattern.compile("[.]*\\d{3}\\d*[ .]*[-‐][ .]*\\d{3}\\d*[.]*");
+	private static final Pattern AND_SEPARATOR = Pattern.compile("[ .]*and[ .]*|[ .]*&amp;[ .]*");
+	private static final Pattern RANGE_SEPARATOR = Pattern.compile("[-‐–]|through| to ");
+	private static final Pattern YEAR_DIGITS = Pattern.compile("(\\d\\d\\d+)");
+	private static final Pattern HAS_DIGIT = Pattern.compile(".*\\d.*");
+
+	// Patterns used when preprocessing each date
+	private static final Pattern CIRCA = Pattern.compile(".*circa.*|.*ca\\..*|^c\\..*|.*\\sc\\..*");
+	private static final Pattern DECADE = Pattern.compile(".*\\d\\d\\d+'*s.*");
+	private static final Pattern DECADE_SUFFIX = Pattern.compile("(?<=\\d)'*s");
+	private static final Pattern DECADE_QUESTION = Pattern.compile("\\s*\\d\\d\\d\\?.*");
+	private static final Pattern DECADE_X = Pattern.compile("\\s*\\d\\d+x+.*");
+
+	// Keyword flags found by scanKeywords
+	private static final int CIRCA_KEYWORD = 1;
+	private static final int DECADE_KEYWORD = 2;
+	private static final int QUESTION_KEYWORD = 4;
+	private static final int ABOUT_KEYWORD = 8;
+	private static final int SEASON_KEYWORD = 16;
+
 
 	/**
 	 * Constructor.  Initialize this date object with the parameter string.  Automatically runs the parser
@@ -90,10 +116,11 @@ public class DateParserHelper {
 		ArrayList<String> tokens = new ArrayList<String>();
 		ArrayList<String> tokens2 = new ArrayList<String>();
 		// Parse the string on Commas
-		String[] possibilities = original.split("[ .]*,[ .]*");
+		String[] possibilities = COMMA_SEPARATOR.split(original);
 		boolean allYears = true;
 		for (int i = 0; i < possibilities.length; i++) {
-			if (possibilities[i].trim().matches("\\d{3}\\d*") || possibilities[i].trim().matches("[.]*\\d{3}\\d*[ .]*[-‐][ .]*\\d{3}\\d*[.]*"))
+			String possibility = possibilities[i].trim();
+			if (YEAR.matcher(possibility).matches() || YEAR_RANGE.matcher(possibility).matches())
 				tokens.add(possibilities[i]);
 			else {
 				allYears = false;
@@ -108,7 +135,7 @@ public class DateParserHelper {
 		
 		// For each token, split on "and", adding each new element to tokens2.  This should be fairly straightforward
 		for (String token : tokens) {
-			String[] indivs = token.trim().split("[ .]*and[ .]*|[ .]*&amp;[ .]*");
+			String[] indivs = AND_SEPARATOR.split(token.trim());
 			for (int i = 0; i < indivs.length; i++)
 				tokens2.add(indivs[i]);
 		}
@@ -117,18 +144,17 @@ public class DateParserHelper {
 		if (tokens2.size() > 1) {
 			for (int i = 0; i < tokens2.size(); i++) {
 				String supplement = "";
-				Pattern p = Pattern.compile("(\\d\\d\\d+)");
 				
 				// check to ensure there is a number somewhere in the from date
-				if (!tokens2.get(i).matches(".*\\d.*")) {
+				if (!HAS_DIGIT.matcher(tokens2.get(i)).matches()) {
 					if (i == 0) { // look at the last element
-						Matcher m = p.matcher(tokens2.get(tokens2.size() - 1));
+						Matcher m = YEAR_DIGITS.matcher(tokens2.get(tokens2.size() - 1));
 						if (m.find()) {
 							supplement += m.group(1) + " ";
 						}
 					}
 					else { // look at the first element
-						Matcher m = p.matcher(tokens2.get(0));
+						Matcher m = YEAR_DIGITS.matcher(tokens2.get(0));
 						if (m.find()) {
 							supplement += m.group(1) + " ";
 						}
@@ -148,16 +174,15 @@ public class DateParserHelper {
 			// pad the token in case date ranges are empty, but exist
 			String tmp = " " + token + " ";
 			// split on common range indicators
-			String[] range = tmp.split("[-‐–]|through| to ");
+			String[] range = RANGE_SEPARATOR.split(tmp);
 			
 			if (range.length > 1){
 				String supplement = "";
-				Pattern p = Pattern.compile("(\\d\\d\\d+)");
 				
 				// check to ensure there is a number somewhere in the from date
-				if (!range[0].matches(".*\\d.*") && !range[0].trim().isEmpty()) {
+				if (!HAS_DIGIT.matcher(range[0]).matches() && !range[0].trim().isEmpty()) {
 					// If not, grab one from the to date, if possible
-					Matcher m = p.matcher(range[1]);
+					Matcher m = YEAR_DIGITS.matcher(range[1]);
 					
 					if (m.find()) {
 						supplement += m.group(1) + " ";
@@ -167,9 +192,9 @@ public class DateParserHelper {
 				
 				// check to ensure there is a number somewhere in the to date
 				supplement = "";
-				if (!range[1].matches(".*\\d.*") && !range[1].trim().isEmpty()) {
+				if (!HAS_DIGIT.matcher(range[1]).matches() && !range[1].trim().isEmpty()) {
 					// If not, grab one from the from date, if possible
-					Matcher m = p.matcher(range[0]);
+					Matcher m = YEAR_DIGITS.matcher(range[0]);
 					
 					if (m.find()) {
 						supplement += m.group(1) + " ";
@@ -239,7 +264,7 @@ public class DateParserHelper {
 	 */
 	private void dateStringPreprocess() {
 		// Handle apostrophes that have been converted
-		original = original.replaceAll("&apos;", "'");
+		original = original.replace("&apos;", "'");
 		
 	}
 	
@@ -270,10 +295,14 @@ public class DateParserHelper {
 		
 	
 		/**
-		 * Handling actual date keywords such as circa, centuries, questions, etc
+		 * Handling actual date keywords such as circa, centuries, questions, etc.  Most dates have none of
+		 * them, so the string is scanned once for anything that could be a keyword, and only the checks
+		 * for keywords that were found are run.  The string is scanned again after each change to it.
 		 */
+		int keywords = scanKeywords(d.getString());
+
 		// Look for and handle the circa/Circa/... keyword
-		if (d.getString().toLowerCase().matches(".*circa.*|.*ca\\..*|^c\\..*|.*\\sc\\..*")) {
+		if ((keywords & CIRCA_KEYWORD) != 0 && CIRCA.matcher(d.getString().toLowerCase()).matches()) {
 			d.addModifier("circa");
 			
 			d.updateString("circa");
@@ -282,80 +311,88 @@ public class DateParserHelper {
 			d.updateString("Ca.");
 			d.updateString("c.");
 			d.trimString();
+			keywords = scanKeywords(d.getString());
 		}
 		
 		// Look for decades (s after the date)
-		if (d.getString().matches(".*\\d\\d\\d+'*s.*")) {
+		if ((keywords & DECADE_KEYWORD) != 0 && DECADE.matcher(d.getString()).matches()) {
 			d.addModifier("decade");
 
-			d.setString(d.getString().replaceFirst("(?<=\\d)'*s", ""));
+			d.setString(DECADE_SUFFIX.matcher(d.getString()).replaceFirst(""));
 			d.trimString();
+			keywords = scanKeywords(d.getString());
 		}
 		
-		if (d.getString().matches("\\s*\\d\\d\\d\\?.*")) {
+		if ((keywords & QUESTION_KEYWORD) != 0 && DECADE_QUESTION.matcher(d.getString()).matches()) {
 			// Also a decade
 			d.addModifier("decade");
 			d.updateString("?", "0");
 			d.trimString();
+			keywords = scanKeywords(d.getString());
 		}
 		
-		if (d.getString().matches("\\s*\\d\\d+x+.*")) {
+		if ((keywords & DECADE_KEYWORD) != 0 && DECADE_X.matcher(d.getString()).matches()) {
 			// Also a decade
 			d.addModifier("decade");
 			d.updateString("x", "0");
 			d.trimString();
+			keywords = scanKeywords(d.getString());
 		}
 		
 		// Look for fuzzy dates (some form of "[?]", "(?)", ...)
-		if (d.getString().contains("?")) {
+		if ((keywords & QUESTION_KEYWORD) != 0) {
 			d.addModifier("fuzzy");
 			
 			d.updateString("[?]", "");
 			d.updateString("(?)", "");
 			d.updateString("?", "");
 			d.trimString();
+			keywords = scanKeywords(d.getString());
 		}
 
 		// Treat "About" as fuzzy as well
-		if (d.getString().toLowerCase().contains("about")) {
+		if ((keywords & ABOUT_KEYWORD) != 0 && d.getString().toLowerCase().contains("about")) {
 			d.addModifier("fuzzy");
 			
 			d.updateString("About");
 			d.updateString("about");
 			d.trimString();
+			keywords = scanKeywords(d.getString());
 		}
 		
 		// Look for seasons
-		String lowercase = d.getString().toLowerCase();
-		if (lowercase.contains("fall") || lowercase.contains("autumn")) {
-			d.addModifier("season");
-			d.addModifier("fall");
+		if ((keywords & SEASON_KEYWORD) != 0) {
+			String lowercase = d.getString().toLowerCase();
+			if (lowercase.contains("fall") || lowercase.contains("autumn")) {
+				d.addModifier("season");
+				d.addModifier("fall");
 
-			d.updateString("fall", "");
-			d.updateString("autumn", "");
-			d.updateString("Fall", "");
-			d.updateString("Autumn", "");
-		}
-		if (lowercase.contains("spring")) {
-			d.addModifier("season");
-			d.addModifier("spring");
+				d.updateString("fall", "");
+				d.updateString("autumn", "");
+				d.updateString("Fall", "");
+				d.updateString("Autumn", "");
+			}
+			if (lowercase.contains("spring")) {
+				d.addModifier("season");
+				d.addModifier("spring");
 
-			d.updateString("spring", "");
-			d.updateString("Spring", "");
-		}
-		if (lowercase.contains("winter")) {
-			d.addModifier("season");
-			d.addModifier("winter");
+				d.updateString("spring", "");
+				d.updateString("Spring", "");
+			}
+			if (lowercase.contains("winter")) {
+				d.addModifier("season");
+				d.addModifier("winter");
 
-			d.updateString("winter", "");
-			d.updateString("Winter", "");
-		}
-		if (lowercase.contains("summer")) {
-			d.addModifier("season");
-			d.addModifier("summer");
+				d.updateString("winter", "");
+				d.updateString("Winter", "");
+			}
+			if (lowercase.contains("summer")) {
+				d.addModifier("season");
+				d.addModifier("summer");
 
-			d.updateString("summer", "");
-			d.updateString("Summer", "");
+				d.updateString("summer", "");
+				d.updateString("Summer", "");
+			}
 		}
 
 		/**
@@ -365,6 +402,75 @@ public class DateParserHelper {
 		
 	}
 	
+	/**
+	 * Scans the date string once for anything that could start one of the keywords handled by
+	 * <code>parsePreprocess</code>.  A flag may be set for a string that turns out not to have the keyword,
+	 * but is always set if the string has it.
+	 * <ul>
+	 * <li> CIRCA_KEYWORD: circa, ca. or c. in any case
+	 * <li> DECADE_KEYWORD: an s after a digit or apostrophe, or an x after a digit
+	 * <li> QUESTION_KEYWORD: a question mark
+	 * <li> ABOUT_KEYWORD: about in any case
+	 * <li> SEASON_KEYWORD: fall, autumn, spring, winter or summer in any case
+	 * </ul>
+	 * 
+	 * @param str Date string to scan.
+	 * @return Keyword flags found in the string.
+	 */
+	private static int scanKeywords(String str) {
+		int keywords = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			char prev = i > 0 ? str.charAt(i - 1) : ' ';
+			switch (Character.toLowerCase(c)) {
+			case '?':
+				keywords |= QUESTION_KEYWORD;
+				break;
+			case 'x':
+				if (c == 'x' && Character.isDigit(prev))
+					keywords |= DECADE_KEYWORD;
+				break;
+			case 'c':
+				if (startsWithWord(str, i, "c.") || startsWithWord(str, i, "ca.") || startsWithWord(str, i, "circa"))
+					keywords |= CIRCA_KEYWORD;
+				break;
+			case 'a':
+				if (startsWithWord(str, i, "about"))
+					keywords |= ABOUT_KEYWORD;
+				else if (startsWithWord(str, i, "autumn"))
+					keywords |= SEASON_KEYWORD;
+				break;
+			case 's':
+				if (c == 's' && (Character.isDigit(prev) || prev == '\''))
+					keywords |= DECADE_KEYWORD;
+				if (startsWithWord(str, i, "spring") || startsWithWord(str, i, "summer"))
+					keywords |= SEASON_KEYWORD;
+				break;
+			case 'f':
+				if (startsWithWord(str, i, "fall"))
+					keywords |= SEASON_KEYWORD;
+				break;
+			case 'w':
+				if (startsWithWord(str, i, "winter"))
+					keywords |= SEASON_KEYWORD;
+				break;
+			}
+		}
+		return keywords;
+	}
+
+	/**
+	 * Checks whether <code>word</code> appears at position <code>i</code> of the string, ignoring case.
+	 * 
+	 * @param str String to check.
+	 * @param i Position in the string.
+	 * @param word Lower case word to look for.
+	 * @return True if the word is at that position, false otherwise.
+	 */
+	private static boolean startsWithWord(String str, int i, String word) {
+		return str.regionMatches(true, i, word, 0, word.length());
+	}
+
 	/**
 	 * Postprocess the date at position <code>i</code> in the dates list.  If the date is the second part of
 	 * a date range, but too low compared with the first date in the range (as in 1800-9), then fix the
@@ -409,6 +515,57 @@ public class DateParserHelper {
 		d.parseDate();
 		d.updateOutputFormat();
 	}
-	
 
+	/**
+	 * Main method used for testing purposes: times parsing a corpus of date strings, one per line of the
+	 * given file, as they appear escaped in the XML (for example, "1850 &amp;amp; 1860").
+	 * 
+	 * @param args date corpus file and, optionally, the number of passes over it (default 10)
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: java edu.virginia.iath.snac.helpers.DateParserHelper date-file [passes]");
+			return;
+		}
+		int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		ArrayList<String> corpus = new ArrayList<String>();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				corpus.add(line);
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read the date file: " + e.getMessage());
+			return;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				// do nothing
+			}
+		}
+
+		// Warm up, then time the passes.  Dates that the parser can't handle still count.
+		int failed = 0;
+		long start = 0;
+		for (int pass = -2; pass < passes; pass++) {
+			if (pass == 0)
+				start = System.nanoTime();
+			for (String date : corpus) {
+				try {
+					new DateParserHelper(date);
+				} catch (RuntimeException e) {
+					failed++;
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(corpus.size() + " dates, " + passes + " passes, " + (failed / (passes + 2)) + " failed per pass");
+		System.out.println((elapsed / ((long) passes * Math.max(1, corpus.size()))) + " ns per date");
+	}
 }
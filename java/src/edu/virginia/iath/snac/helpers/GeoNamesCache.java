@@ -0,0 +1,156 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
+
+/**
+ * Bounded, thread-safe cache of GeoNames lookup results, keyed by the cleaned query string.  Place strings
+ * repeat heavily in archival records, so a repeated string is answered from the cache instead of running
+ * the full cheshire query process again.  When the cache is full, the least recently used result is evicted.
+ * <p>
+ * The size of the shared cache is set with the <code>snac.geonames.cacheSize</code> system property
+ * (default 10000).  A size of 0 disables caching.
+ *
+ * @author Robbie Hott
+ */
+public class GeoNamesCache {
+	private static GeoNamesCache instance = null;
+
+	private final int maxSize;
+	private final LinkedHashMap<String, GeoNamesResult> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Constructor: Creates an empty cache holding at most <code>maxSize</code> results.
+	 *
+	 * @param maxSize Maximum number of results to keep.
+	 */
+	public GeoNamesCache(final int maxSize) {
+		this.maxSize = maxSize;
+		// access-ordered, so the eldest entry is the least recently used
+		cache = new LinkedHashMap<String, GeoNamesResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 3346428155372939271L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GeoNamesResult> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Gets the shared cache, creating it from the system properties on first use.
+	 *
+	 * @return The shared cache.
+	 */
+	public static synchronized GeoNamesCache getInstance() {
+		if (instance == null) {
+			instance = new GeoNamesCache(Integer.getInteger("snac.geonames.cacheSize", 10000));
+		}
+		return instance;
+	}
+
+	/**
+	 * Looks up the result for a cleaned query string, counting a hit or miss.  Nothing is counted if the
+	 * cache is disabled.
+	 *
+	 * @param query Cleaned query string.
+	 * @return The cached result, or null if there is none.
+	 */
+	public GeoNamesResult get(String query) {
+		if (maxSize <= 0)
+			return null;
+		GeoNamesResult result;
+		synchronized (cache) {
+			result = cache.get(query);
+		}
+		if (result != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Stores the result for a cleaned query string.
+	 *
+	 * @param query Cleaned query string.
+	 * @param result Result of the lookup.
+	 */
+	public void put(String query, GeoNamesResult result) {
+		if (maxSize <= 0 || result == null)
+			return;
+		synchronized (cache) {
+			cache.put(query, result);
+		}
+	}
+
+	/**
+	 * Gets the number of results in the cache.
+	 *
+	 * @return Number of cached results.
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Gets the number of lookups answered from the cache.
+	 *
+	 * @return Number of cache hits.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of lookups that were not in the cache.
+	 *
+	 * @return Number of cache misses.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Empties the cache and resets the hit and miss counters.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Summary of the cache's size, hits and misses.
+	 */
+	@Override
+	public String toString() {
+		if (maxSize <= 0)
+			return "GeoNames cache: disabled";
+		return "GeoNames cache: " + size() + " results, " + getHits() + " hits, " + getMisses() + " misses";
+	}
+}
@@ -0,0 +1,371 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
+
+/**
+ * File-backed cache of GeoNames lookup results that survives across Saxon runs.  Results are appended to
+ * a log file, one JSON object per line, holding the lookup source ("cheshire", "index" or "weblookup", with
+ * any early-exit confidence after an "@", as in "cheshire@0.9"), the query string, the data version and the
+ * result.  The file is read into an in-memory index the first time the cache is used, and later lines
+ * replace earlier ones for the same source and query.
+ * <p>
+ * Entries written with a different data version are ignored, so changing the version (for example after
+ * loading new GeoNames data into cheshire) starts with a cold cache.  Since the log only grows, it should be
+ * compacted between runs with:
+ * <pre>
+ * java edu.virginia.iath.snac.helpers.GeoNamesDiskCache cache-file [data-version]
+ * </pre>
+ * which rewrites the file with only the latest entry for each query of the given version.
+ * <p>
+ * The shared cache is configured with the following system properties:
+ * <ul>
+ * <li> <code>snac.geonames.diskCache</code>: Path of the cache file (default none, which disables the cache)
+ * <li> <code>snac.geonames.dataVersion</code>: Data version tag of new and usable entries (default 1)
+ * </ul>
+ *
+ * @author Robbie Hott
+ */
+public class GeoNamesDiskCache {
+	private static GeoNamesDiskCache instance = null;
+
+	private final File file;
+	private final String version;
+	private Map<String, GeoNamesResult> index = null;
+	private Writer log = null;
+
+	/**
+	 * Constructor: Creates a cache on the given file.  The file is not read until the cache is first used.
+	 *
+	 * @param file Cache file, or null to disable the cache.
+	 * @param version Data version tag.
+	 */
+	public GeoNamesDiskCache(File file, String version) {
+		this.file = file;
+		this.version = version;
+	}
+
+	/**
+	 * Gets the shared cache, creating it from the system properties on first use.  The cache file is
+	 * flushed and closed when the JVM exits.
+	 *
+	 * @return The shared disk cache.
+	 */
+	public static synchronized GeoNamesDiskCache getInstance() {
+		if (instance == null) {
+			String path = System.getProperty("snac.geonames.diskCache");
+			instance = new GeoNamesDiskCache(path == null ? null : new File(path),
+					System.getProperty("snac.geonames.dataVersion", "1"));
+
+			final GeoNamesDiskCache cache = instance;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					cache.close();
+				}
+			});
+		}
+		return instance;
+	}
+
+	/**
+	 * Whether this cache has a file to use.
+	 *
+	 * @return True if the cache is enabled, false otherwise.
+	 */
+	public boolean isEnabled() {
+		return file != null;
+	}
+
+	/**
+	 * Looks up the stored result for a query.
+	 *
+	 * @param source Lookup source, such as "cheshire" or "weblookup".
+	 * @param query Normalized query string.
+	 * @return The stored result, or null if there is none.
+	 */
+	public synchronized GeoNamesResult get(String source, String query) {
+		if (!isEnabled())
+			return null;
+		load();
+		return index.get(source + "\t" + query);
+	}
+
+	/**
+	 * Stores the result for a query, appending it to the cache file.
+	 *
+	 * @param source Lookup source, such as "cheshire" or "weblookup".
+	 * @param query Normalized query string.
+	 * @param result Result of the lookup.
+	 */
+	public synchronized void put(String source, String query, GeoNamesResult result) {
+		if (!isEnabled() || result == null)
+			return;
+		load();
+		index.put(source + "\t" + query, result);
+		try {
+			if (log == null)
+				log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+			log.write(toJSON(source, query, version, result).toString());
+			log.write("\n");
+			log.flush();
+		} catch (IOException e) {
+			System.err.println("Could not write to the GeoNames cache file " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Closes the cache file.
+	 */
+	public synchronized void close() {
+		try {
+			if (log != null)
+				log.close();
+		} catch (IOException e) {
+			// do nothing
+		}
+		log = null;
+	}
+
+	/**
+	 * Reads the cache file into the in-memory index, if it has not already been read.  Lines that can't
+	 * be parsed (such as a line cut off by an interrupted run) and entries with missing fields are skipped.
+	 */
+	private void load() {
+		if (index != null)
+			return;
+		Map<String, GeoNamesResult> entries = new HashMap<String, GeoNamesResult>();
+		for (JSONObject entry : readEntries(file)) {
+			if (!version.equals(entry.optString("version")))
+				continue;
+			try {
+				entries.put(entry.getString("source") + "\t" + entry.getString("query"), fromJSON(entry.getJSONObject("result")));
+			} catch (Exception e) {
+				// skip the broken entry
+			}
+		}
+		index = entries;
+	}
+
+	/**
+	 * Reads all parseable entries of a cache file, in file order.
+	 *
+	 * @param file Cache file.
+	 * @return List of entries, empty if the file doesn't exist.
+	 */
+	private static List<JSONObject> readEntries(File file) {
+		List<JSONObject> entries = new ArrayList<JSONObject>();
+		if (!file.exists())
+			return entries;
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				try {
+					JSONObject entry = new JSONObject(line);
+					if (entry.has("source") && entry.has("query") && entry.has("result"))
+						entries.add(entry);
+				} catch (Exception e) {
+					// skip the broken line
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read the GeoNames cache file " + file + ": " + e.getMessage());
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				// do nothing
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Converts a cache entry to JSON.  The result's values are written as arrays of name/value pairs, since
+	 * their order is the order of the elements returned to Saxon.
+	 *
+	 * @param source Lookup source.
+	 * @param query Normalized query string.
+	 * @param version Data version tag.
+	 * @param result Result of the lookup.
+	 * @return JSON object for the entry.
+	 */
+	private static JSONObject toJSON(String source, String query, String version, GeoNamesResult result) {
+		JSONObject json = new JSONObject();
+		json.put("found", result.wasFound());
+		json.put("confidence", result.getConfidence());
+		json.put("top", valuesToJSON(result.getTop()));
+		JSONArray others = new JSONArray();
+		for (Map<String, String> other : result.getOthers()) {
+			others.put(valuesToJSON(other));
+		}
+		json.put("others", others);
+
+		JSONObject entry = new JSONObject();
+		entry.put("source", source);
+		entry.put("query", query);
+		entry.put("version", version);
+		entry.put("result", json);
+		return entry;
+	}
+
+	/**
+	 * Converts the JSON written by <code>toJSON</code> back into a result.
+	 *
+	 * @param json JSON object for the result.
+	 * @return The result.
+	 */
+	private static GeoNamesResult fromJSON(JSONObject json) {
+		if (!json.optBoolean("found"))
+			return GeoNamesResult.EMPTY;
+		List<Map<String, String>> others = new ArrayList<Map<String, String>>();
+		JSONArray jsonOthers = json.getJSONArray("others");
+		for (int i = 0; i < jsonOthers.length(); i++) {
+			others.add(valuesFromJSON(jsonOthers.opt(i)));
+		}
+		return new GeoNamesResult(json.getDouble("confidence"), valuesFromJSON(json.opt("top")), others);
+	}
+
+	/**
+	 * Converts result values to an array of name/value pairs.
+	 *
+	 * @param values Result values, may be null.
+	 * @return JSON array of pairs, or JSONObject.NULL.
+	 */
+	private static Object valuesToJSON(Map<String, String> values) {
+		if (values == null)
+			return JSONObject.NULL;
+		JSONArray pairs = new JSONArray();
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			JSONArray pair = new JSONArray();
+			pair.put(value.getKey());
+			pair.put(value.getValue());
+			pairs.put(pair);
+		}
+		return pairs;
+	}
+
+	/**
+	 * Converts an array of name/value pairs back to result values.
+	 *
+	 * @param json JSON array of pairs, or JSONObject.NULL.
+	 * @return Result values, or null.
+	 */
+	private static Map<String, String> valuesFromJSON(Object json) {
+		if (!(json instanceof JSONArray))
+			return null;
+		JSONArray pairs = (JSONArray) json;
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		for (int i = 0; i < pairs.length(); i++) {
+			JSONArray pair = pairs.getJSONArray(i);
+			values.put(pair.getString(0), pair.getString(1));
+		}
+		return values;
+	}
+
+	/**
+	 * Compacts a cache file offline: rewrites it with only the latest entry for each source and query of the
+	 * given data version.  It must not be run while a transform is using the file.
+	 *
+	 * @param args cache file and, optionally, the data version to keep (default 1)
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: java edu.virginia.iath.snac.helpers.GeoNamesDiskCache cache-file [data-version]");
+			return;
+		}
+		File file = new File(args[0]);
+		String version = args.length > 1 ? args[1] : "1";
+
+		// Keep the latest entry for each query, in the order they were last written
+		List<JSONObject> entries = readEntries(file);
+		LinkedHashMap<String, JSONObject> latest = new LinkedHashMap<String, JSONObject>();
+		for (JSONObject entry : entries) {
+			if (version.equals(entry.optString("version"))) {
+				String key = entry.getString("source") + "\t" + entry.getString("query");
+				latest.remove(key);
+				latest.put(key, entry);
+			}
+		}
+
+		File compacted = new File(file.getPath() + ".compact");
+		Writer out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compacted), "UTF-8"));
+			for (JSONObject entry : latest.values()) {
+				out.write(entry.toString());
+				out.write("\n");
+			}
+			out.close();
+			out = null;
+			replace(file, compacted);
+			System.err.println("Compacted " + entries.size() + " entries to " + latest.size());
+		} catch (IOException e) {
+			System.err.println("Could not compact the GeoNames cache file: " + e.getMessage());
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e2) {
+				// do nothing
+			}
+		}
+	}
+
+	/**
+	 * Replaces a file with another, so that the file's path always holds either the old or the new contents.
+	 * The rename replaces the file where the platform allows it; otherwise the old file is first moved aside
+	 * to a <code>.bak</code> file, which is put back if the new one can't take its place.
+	 *
+	 * @param file File to replace.
+	 * @param replacement File to put in its place.
+	 * @throws IOException if the file could not be replaced
+	 */
+	private static void replace(File file, File replacement) throws IOException {
+		if (replacement.renameTo(file))
+			return;
+		File backup = new File(file.getPath() + ".bak");
+		backup.delete();
+		if (!file.renameTo(backup))
+			throw new IOException("could not replace " + file + " with " + replacement);
+		if (!replacement.renameTo(file)) {
+			backup.renameTo(file);
+			throw new IOException("could not replace " + file + " with " + replacement);
+		}
+		backup.delete();
+	}
+}
@@ -16,10 +16,9 @@
 package edu.virginia.iath.snac.helpers;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.net.Socket;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -28,107 +27,330 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.w3c.dom.Document;
 
 import edu.virginia.iath.snac.helpers.comparators.DifferenceNGramsComparator;
 import edu.virginia.iath.snac.helpers.comparators.FlexibleNGramsComparator;
 import edu.virginia.iath.snac.helpers.comparators.OriginalNGramsComparator;
+import edu.virginia.iath.snac.helpers.comparators.TopSelector;
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesRecord;
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
 import edu.virginia.iath.snac.helpers.datastructures.GeolocationString;
+import edu.virginia.iath.snac.helpers.datastructures.NGramCandidates;
 
 /**
  * GeoNamesHelper Class, used for querying cheshire for Geonames results.  Also utilizes
  * Google AutoCorrect to fix spelling errors and get more information search strings
  * before searching in cheshire.
  * 
+ * A GeoNamesHelper holds the state of one query and is not thread-safe, so use a new helper for each
+ * lookup.  GeoNamesLookup does this, and is safe to share between threads.
+ * 
+ * If the <code>snac.geonames.index</code> system property names a GeoNames dump, the same queries are
+ * answered by the in-process GeoNamesIndex instead of cheshire.
+ * 
  * @author Robbie Hott
  */
 public class GeoNamesHelper {
 	private static final boolean debug = false;
-	private Socket cheshire;
+	private CheshireConnection cheshire;
 	private PrintWriter out;
 	private BufferedReader in;
-	private ArrayList<String> results;
-	private HashSet<String> uniqueResults;
-	private ArrayList<String> overkill;
-	private ArrayList<String> betterResults;
+	private GeoNamesIndex index;
+	private List<String> indexResults;
+	private ArrayList<GeoNamesRecord> results;
+	private HashSet<GeoNamesRecord> uniqueResults;
+	private ArrayList<GeoNamesRecord> overkill;
+	private NGramCandidates ngramCandidates;
+	private ArrayList<GeoNamesRecord> betterResults;
 	private int numResults = 0;
 	private boolean didNGramsSearch = false;
+	// Whether the cheshire connection broke during this lookup, which then stops
+	private boolean broken = false;
 	private double discountConfidence = 1;
-
-	// Maps of relevant places (countries and US states)
-	private Map<String, String> countries = null;
-	private Map<String, String> states = null;
+	private boolean pipelined = Boolean.getBoolean("snac.cheshire.pipeline");
+	private int pageSize = Math.max(Integer.getInteger("snac.cheshire.pageSize", 100), 1);
+	private double stopConfidence = Double.parseDouble(System.getProperty("snac.geonames.stopConfidence", "0"));
+	private boolean tierReport = Boolean.getBoolean("snac.geonames.tierReport");
+	private int queriesSent = 0;
+
+	// Tiers of the search, in the order queryCheshire runs them, and the answer after each for the tier report
+	private static final String[] SEARCH_TIERS = { "state", "country", "pplc", "ppl", "adm1", "adm2", "other", "ngram" };
+	private String[] tierTops;
+	private double[] tierConfidences;
+	private int[] tierQueries;
+	private int stopTier = -1;
+	// Number of n-gram search results kept and put in order
+	private static final int ORDERED_NGRAM_RESULTS = 50;
+
+	// Maps of relevant places (countries and US states), built once and shared by all helpers.  The
+	// reverse maps go from abbreviation back to name.
+	private static final Map<String, String> countries = Collections.unmodifiableMap(buildCountries());
+	private static final Map<String, String> countryNames = reverse(countries);
+	private static final Map<String, String> states = Collections.unmodifiableMap(buildStates());
+	private static final Map<String, String> stateNames = reverse(states);
 
 	// Fields required when using Google
 	private static final String googleAPIKey = null;
 	private String type;
 
-	// Document parsers for the XML parsing of the results
-	private Document resultDoc;
-
 
 	/**
-	 * Default Constructor: Initializes all lists and pre-fills country and state lookup maps.
+	 * Default Constructor: Initializes all lists.
 	 */
 	public GeoNamesHelper() {
-		countries = getCountries();
-		states = getStates();
-		results = new ArrayList<String>();
-		uniqueResults = new HashSet<String>();
-		overkill = new ArrayList<String>();
-		betterResults = new ArrayList<String>();
+		results = new ArrayList<GeoNamesRecord>();
+		uniqueResults = new HashSet<GeoNamesRecord>();
+		overkill = new ArrayList<GeoNamesRecord>();
+		betterResults = new ArrayList<GeoNamesRecord>();
 	}
 
 	/**
-	 * Connects to cheshire via a Socket on localhost, port 7010.
+	 * Connects to cheshire by borrowing an initialized connection from the shared CheshireConnectionPool,
+	 * or to the shared GeoNamesIndex if one is configured.
 	 * 
 	 * @return True if connection was successful, false otherwise.
 	 */
 	public boolean connect() {
-		try {
-			cheshire = new Socket("localhost", 7010);
-			out =
-					new PrintWriter(cheshire.getOutputStream(), true);
-			in =
-					new BufferedReader(
-							new InputStreamReader(cheshire.getInputStream()));
-
-			// Init cheshire
-			out.println("init");
-			// Read the connection info off the buffer
-			in.readLine();
+		index = GeoNamesIndex.getInstance();
+		if (index != null)
 			return true;
-		} catch (Exception e) {
+
+		cheshire = CheshireConnectionPool.getInstance().borrow();
+		if (cheshire == null)
 			return false;
-		}
 
+		out = cheshire.getWriter();
+		in = cheshire.getReader();
+		return true;
 	}
 
 	/**
-	 * Disconnects the Socket connection to cheshire.
+	 * Disconnects from cheshire by returning the connection to the shared CheshireConnectionPool.
 	 * 
 	 * @return True.
 	 */
 	public boolean disconnect() {
+		if (index != null) {
+			index = null;
+			indexResults = null;
+			return true;
+		}
+		CheshireConnectionPool.getInstance().release(cheshire);
+		cheshire = null;
+		out = null;
+		in = null;
+		return true;
+	}
+
+	/**
+	 * Marks the cheshire connection as broken, which closes it, and stops the rest of this lookup.
+	 */
+	private void markBroken() {
+		broken = true;
+		cheshire.markBroken();
+	}
 
+	/**
+	 * Whether the cheshire connection broke during a lookup, in which case the lookup stopped early and its
+	 * results are incomplete.  Stays set after <code>disconnect</code>.
+	 * 
+	 * @return True if the connection broke, false otherwise.
+	 */
+	public boolean isBroken() {
+		return broken;
+	}
+
+	/**
+	 * Sends a query to cheshire and reads the response line.  If cheshire closed the connection or the read
+	 * failed or timed out, the connection is marked as broken so that it is not reused.
+	 * 
+	 * @param query Cheshire command to send.
+	 * @return Cheshire result string, or null if there was no response.
+	 * @throws IOException if the response could not be read.
+	 */
+	private String sendQuery(String query) throws IOException {
+		queriesSent++;
+		if (index != null) {
+			indexResults = index.find(query);
+			return "Default " + indexResults.size();
+		}
+		if (broken)
+			throw new IOException("The cheshire connection is broken");
+		out.println(query);
+		String response;
 		try {
-			// close cheshire
-			out.println("close");
-			out.close();
-			cheshire.close();
-		} catch (Exception e) {
-			// do nothing
+			response = in.readLine();
+		} catch (IOException e) {
+			// The response may still arrive later, so don't reuse the connection
+			markBroken();
+			throw e;
 		}
-		return true;
+		if (response == null)
+			markBroken();
+		return response;
+	}
+
+	/**
+	 * Sends all the queries to cheshire back-to-back, then reads their response lines in order.  Only
+	 * the last query's results remain in cheshire's Default result set afterwards.
+	 * 
+	 * @param queries Cheshire commands to send.
+	 * @return Cheshire result strings, in the order of the queries.  A result is null if there was no response.
+	 * @throws IOException if the responses could not be read.
+	 */
+	private String[] sendQueries(List<String> queries) throws IOException {
+		if (index != null) {
+			String[] responses = new String[queries.size()];
+			for (int i = 0; i < responses.length; i++) {
+				responses[i] = sendQuery(queries.get(i));
+			}
+			return responses;
+		}
+		if (broken)
+			throw new IOException("The cheshire connection is broken");
+		queriesSent += queries.size();
+		for (String query : queries) {
+			out.println(query);
+		}
+		String[] responses = new String[queries.size()];
+		try {
+			for (int i = 0; i < responses.length; i++) {
+				responses[i] = in.readLine();
+				if (responses[i] == null) {
+					markBroken();
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// The other responses may still arrive later, so don't reuse the connection
+			markBroken();
+			throw e;
+		}
+		return responses;
+	}
+
+	/**
+	 * Runs a list of independent find queries and adds their results, in order.  If pipelining is enabled, the
+	 * queries are sent together and only the queries that found results are run again (when their results
+	 * are no longer cheshire's Default result set) before the results are read.  Since most queries find nothing,
+	 * this uses far fewer round-trips than sending them one at a time, with the same results.
+	 * 
+	 * @param queries Cheshire find commands to run.
+	 * @throws IOException if the responses could not be read.
+	 */
+	private void runQueries(List<String> queries) throws IOException {
+		if (!pipelined) {
+			for (String query : queries) {
+				addResult(sendQuery(query));
+				if (GeoNamesHelper.debug) System.err.println("   " + query + "\tResults: " + this.numResults);
+			}
+			return;
+		}
+
+		String[] responses = sendQueries(queries);
+		// index of the query whose results are in the Default result set
+		int current = queries.size() - 1;
+		for (int i = 0; i < responses.length; i++) {
+			if (getResultCount(responses[i]) > 0 && i != current) {
+				responses[i] = sendQuery(queries.get(i));
+				current = i;
+			}
+			addResult(responses[i]);
+			if (GeoNamesHelper.debug) System.err.println("   " + queries.get(i) + "\tResults: " + this.numResults);
+		}
+	}
+
+	/**
+	 * Sets whether independent queries are pipelined to cheshire.  Defaults to the 
+	 * <code>snac.cheshire.pipeline</code> system property.
+	 * 
+	 * @param pipelined True to pipeline queries, false to send them one at a time.
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Sets the number of results fetched from cheshire with each display command.  Defaults to the 
+	 * <code>snac.cheshire.pageSize</code> system property, or 100.
+	 * 
+	 * @param pageSize Number of results per display command, at least 1.
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = Math.max(pageSize, 1);
+	}
+
+	/**
+	 * Sets the confidence at which the search stops early: once the top result found by a tier of exact
+	 * queries has at least this confidence, the remaining tiers are skipped.  A confidence of 1 stops only
+	 * when every query so far found the same single result.  Defaults to the <code>snac.geonames.stopConfidence</code>
+	 * system property, or 0, which never stops early.
+	 * 
+	 * @param stopConfidence Confidence at which to stop, or 0 to run every tier.
+	 */
+	public void setStopConfidence(double stopConfidence) {
+		this.stopConfidence = stopConfidence;
+	}
+
+	/**
+	 * Gets the confidence at which the search stops early.
+	 * 
+	 * @return Confidence at which to stop, or 0 if every tier is run, as it is when reporting on the tiers.
+	 */
+	public double getStopConfidence() {
+		return tierReport ? 0 : stopConfidence;
+	}
+
+	/**
+	 * Sets whether every tier is run and the answer after each is added to the shared SearchTierReport,
+	 * instead of stopping early.  Defaults to the <code>snac.geonames.tierReport</code> system property.
+	 * 
+	 * @param tierReport True to report on the tiers, false otherwise.
+	 */
+	public void setTierReport(boolean tierReport) {
+		this.tierReport = tierReport;
+	}
+
+	/**
+	 * Gets the number of find queries sent so far.
+	 * 
+	 * @return Number of queries sent.
+	 */
+	public int getQueriesSent() {
+		return queriesSent;
+	}
+
+	/**
+	 * Notes the answer after a tier of the search, for the tier report, and decides whether the search should
+	 * stop early.  When reporting, the search never stops, but the first tier at which it would have is noted.
+	 * If the cheshire connection broke, the search always stops.
+	 * 
+	 * @param tier Index of the tier in <code>SEARCH_TIERS</code>.
+	 * @return True if the remaining tiers should be skipped, false otherwise.
+	 */
+	private boolean endTier(int tier) {
+		if (broken)
+			return true;
+		boolean found = numResults > 0 && results.size() > 0;
+		boolean confident = stopConfidence > 0 && found && getConfidence() >= stopConfidence;
+		if (tierReport) {
+			tierTops[tier] = found ? results.get(0).getGeonameId() : null;
+			tierConfidences[tier] = found ? getConfidence() : 0;
+			tierQueries[tier] = queriesSent;
+			// After the last exact tier, there is nothing left to skip
+			if (confident && stopTier < 0 && tier < SEARCH_TIERS.length - 2)
+				stopTier = tier;
+			return false;
+		}
+		return confident;
 	}
 
 	public int getLevelOfSearch() {
@@ -144,21 +366,7 @@ public class GeoNamesHelper {
 	 * @return XML String for result at position 1.
 	 */
 	public String getCheshireResultString() {
-		String result = "";
-		try {
-			// Ask for the top entry
-			out.println("display default 1 1");
-			in.skip(17);
-			while (in.ready()) {
-				result += in.readLine();
-			}
-
-			// cleanup the result
-			result = result.substring(0, result.length()-1);
-			return result;
-		} catch (Exception e) {}
-
-		return null;
+		return getCheshireResultString(1);
 	}
 
 	/**
@@ -166,24 +374,77 @@ public class GeoNamesHelper {
 	 * Indexing starts at 1.
 	 * 
 	 * @param start Index within the cheshire results. 
-	 * @return XML String for result at position <code>start</code>
+	 * @return XML String for result at position <code>start</code>, or null if it could not be read.
 	 */
 	public String getCheshireResultString(int start) {
-		String result = "";
+		List<String> records = getCheshireResultStrings(start, 1);
+		return records.isEmpty() ? null : records.get(0);
+	}
+
+	/**
+	 * Gets <code>n</code> Geonames XML results from cheshire, starting at the offset <code>start</code>, with a
+	 * single display command.  Indexing starts at 1.  Cheshire returns the records back-to-back, and they are
+	 * split apart at each closing geoname tag.
+	 * 
+	 * @param start Index within the cheshire results of the first result.
+	 * @param n Number of results to get.
+	 * @return XML Strings for the results, in order.  There may be fewer than <code>n</code> if cheshire has
+	 * fewer results, and none if the results could not be read.
+	 */
+	public List<String> getCheshireResultStrings(int start, int n) {
+		List<String> records = new ArrayList<String>();
+		if (index != null) {
+			for (int i = start; indexResults != null && i < start + n && i <= indexResults.size(); i++) {
+				records.add(indexResults.get(i - 1));
+			}
+			return records;
+		}
+		if (broken)
+			return records;
+
 		try {
-			// Ask for the top entry
-			out.println("display default "+start+" 1");
-			in.skip(17);
-			while (in.ready()) {
-				result += in.readLine();
+			out.println("display default " + start + " " + n);
+
+			// The response is a header in braces, the records, and a closing brace, which may span lines.  It
+			// is complete once the text after the header ends with the brace, right after the last record.
+			StringBuilder response = new StringBuilder();
+			int header = -1;
+			String line;
+			while ((line = in.readLine()) != null) {
+				response.append(line);
+				if (response.length() == 0)
+					continue;
+				if (header < 0)
+					header = response.indexOf("}");
+				String body = header < 0 ? "" : response.substring(header + 1).trim();
+				if (response.charAt(0) != '{' || !(body.isEmpty() || body.startsWith("<geoname>") || body.equals("}"))) {
+					// Not a display response: the connection is out of step with the commands sent
+					markBroken();
+					return records;
+				}
+				if (body.endsWith("}") && (body.length() == 1 || body.substring(0, body.length() - 1).trim().endsWith("</geoname>")))
+					break;
+			}
+			if (line == null) {
+				markBroken();
+				return records;
 			}
 
-			// cleanup the result
-			result = result.substring(0, result.length()-1);
-			return result;
-		} catch (Exception e) {}
+			String body = response.substring(response.indexOf("}") + 1, response.lastIndexOf("}"));
+			String end = "</geoname>";
+			int from = 0;
+			int close;
+			while ((close = body.indexOf(end, from)) >= 0) {
+				close += end.length();
+				records.add(body.substring(from, close).trim());
+				from = close;
+			}
+		} catch (Exception e) {
+			// Part of the response may still be on the socket, so don't reuse the connection
+			markBroken();
+		}
 
-		return null;
+		return records;
 	}
 
 	/**
@@ -205,7 +466,8 @@ public class GeoNamesHelper {
 	 * Parses the cheshire result string ("Default...") for the number of results
 	 * found, then gets the cheshire Geonames XML string for the top result of this
 	 * query and addes it to each list.  Then, it gets the rest of the XML results from
-	 * cheshire and adds them to the overkill list. 
+	 * cheshire, <code>pageSize</code> at a time, and adds them to the overkill list.  During an n-gram search, the results are
+	 * scored as they arrive instead, and only the best candidates are kept.
 	 * 
 	 * @param cheshireResult Cheshire result string.
 	 * @return True if at least one result was added, false otherwise.
@@ -217,18 +479,20 @@ public class GeoNamesHelper {
 			// add the total to the number of results
 			numResults += count;
 
-			// add the top result of this group to the results arraylist
-			String result = getCheshireResultString();
-			if (result != null) {
-				results.add(result);
-				uniqueResults.add(result);
-				overkill.add(result);
-			}
-
-			// for 2 on up, get the cheshire results and add them to overkill
-			for(int i = 2; i < count; i++) {
-				result = getCheshireResultString(i);
-				if (result != null) overkill.add(result);
+			// get the results a page at a time: the top result and, for 2 on up, the rest of the
+			// results up to count - 1
+			int last = Math.max(count - 1, 1);
+			for (int start = 1; start <= last && !broken; start += pageSize) {
+				List<String> page = getCheshireResultStrings(start, Math.min(pageSize, last - start + 1));
+				for (int i = 0; i < page.size(); i++) {
+					GeoNamesRecord record = new GeoNamesRecord(page.get(i));
+					if (start + i == 1) {
+						// add the top result of this group to the results arraylist
+						results.add(record);
+						uniqueResults.add(record);
+					}
+					addCandidate(record);
+				}
 			}
 
 			return true;
@@ -236,6 +500,18 @@ public class GeoNamesHelper {
 		return false;
 	}
 
+	/**
+	 * Adds a result to the overkill list, or scores it as an n-gram candidate during an n-gram search.
+	 * 
+	 * @param record Cheshire result.
+	 */
+	private void addCandidate(GeoNamesRecord record) {
+		if (ngramCandidates != null)
+			ngramCandidates.offer(record);
+		else
+			overkill.add(record);
+	}
+
 	/**
 	 * Looks up the query string in a map of countries and ISO abbreviations.  If the query matches either
 	 * an abbreviation or a country, cheshire is queried exactly for tht country
@@ -256,18 +532,12 @@ public class GeoNamesHelper {
 				// quotes still treat it as the cheshire command (no escaping).
 				// 2/3/14 Replaced the @ with a direct search on country and an exact (no truncating) match
 				//   on the country name.  This fixes US, but hopefully doesn't break any others.
-				out.println("find xcountry '" + countries.get(query) + "' and xintlname[5=100] '" + query +"' and feature_type 'pcli'");
-				cheshireResult = in.readLine();
+				cheshireResult = sendQuery("find xcountry '" + countries.get(query) + "' and xintlname[5=100] '" + query +"' and feature_type 'pcli'");
 				addResult(cheshireResult);
 				return true;
-			} else if (countries.values().contains(query)) { // we have an iso abbreviation
-				String countryName = "";
-				for (String key : countries.keySet()) {
-					if (countries.get(key).equals(query))
-						countryName = key;
-				}
-				out.println("find xcountry '" + query + "' and xintlname[5=100] '" + countryName +"' and feature_type 'pcli'");
-				cheshireResult = in.readLine();
+			} else if (countryNames.containsKey(query)) { // we have an iso abbreviation
+				String countryName = countryNames.get(query);
+				cheshireResult = sendQuery("find xcountry '" + query + "' and xintlname[5=100] '" + countryName +"' and feature_type 'pcli'");
 				addResult(cheshireResult);
 				return true;
 
@@ -292,17 +562,11 @@ public class GeoNamesHelper {
 		{
 			if (states.containsKey(query)) { // we have a US state name!
 				// Do a simple state lookup
-				out.println("find exactname[5=100] '"+ query +"' and admin1 '"+ states.get(query) +"' and feature_type 'adm1'");
-				cheshireResult = in.readLine();
-			} else if (states.values().contains(query)) { // we have a US state abbreviation!
+				cheshireResult = sendQuery("find exactname[5=100] '"+ query +"' and admin1 '"+ states.get(query) +"' and feature_type 'adm1'");
+			} else if (stateNames.containsKey(query)) { // we have a US state abbreviation!
 				// Do a reverse state lookup
-				String stateName = "";
-				for(String key : states.keySet()) {
-					if (states.get(key).equals(query))
-						stateName = key;
-				}
-				out.println("find exactname[5=100] '"+ stateName +"' and admin1 '"+ query +"' and feature_type 'adm1'");
-				cheshireResult = in.readLine();
+				String stateName = stateNames.get(query);
+				cheshireResult = sendQuery("find exactname[5=100] '"+ stateName +"' and admin1 '"+ query +"' and feature_type 'adm1'");
 			}
 
 			if (cheshireResult != null) {
@@ -325,6 +589,10 @@ public class GeoNamesHelper {
 	 * <li> Perform exact queries on a comma-separated version of the query string
 	 * <li> Perform the undesired queries (n-grams) on the original query string, and post processes the results.
 	 * </ol>
+	 * If a stop confidence is set, the steps before the n-grams search stop as soon as the top result is at least
+	 * that confident (see <code>setStopConfidence</code>).  If the cheshire connection breaks, the search stops
+	 * after the current step, with the results found so far (see <code>isBroken</code>).
+	 * 
 	 * It then returns true if at least one result was found.
 	 * 
 	 * @param query The query string on which to search.
@@ -340,14 +608,25 @@ public class GeoNamesHelper {
 		if (GeoNamesHelper.debug) System.err.println("Starting Search \t\t\tSearch String: " + query + "\n=====================");
 
 
+		if (tierReport) {
+			tierTops = new String[SEARCH_TIERS.length];
+			tierConfidences = new double[SEARCH_TIERS.length];
+			tierQueries = new int[SEARCH_TIERS.length];
+			stopTier = -1;
+		}
+
 		/*******************
 		 * Start by searching for states, then for countries
 		 */
 		searchForState(query);
 		if (GeoNamesHelper.debug) System.err.println("Queried for state.\t\t\tResults: " + this.numResults);
+		boolean stop = endTier(0);
 
-		searchForCountry(query);
-		if (GeoNamesHelper.debug) System.err.println("Queried for country.\t\t\tResults: " + this.numResults);
+		if (!stop) {
+			searchForCountry(query);
+			if (GeoNamesHelper.debug) System.err.println("Queried for country.\t\t\tResults: " + this.numResults);
+			stop = endTier(1);
+		}
 
 
 		/*******************
@@ -382,24 +661,39 @@ public class GeoNamesHelper {
 		if (GeoNamesHelper.debug) System.err.println("Broke string into parts.\n\t1: " + first + "\n\t2: " + second + "==");
 
 		// City first
-		exactQueries(first, second, null, "pplc");
-		if (GeoNamesHelper.debug) System.err.println("XQueried for City.\t\t\tResults: " + this.numResults);
+		if (!stop) {
+			exactQueries(first, second, null, "pplc");
+			if (GeoNamesHelper.debug) System.err.println("XQueried for City.\t\t\tResults: " + this.numResults);
+			stop = endTier(2);
+		}
 
 		// Then populated place
-		exactQueries(first, second, null, "ppl");
-		if (GeoNamesHelper.debug) System.err.println("XQueried for Populated Place.\t\tResults: " + this.numResults);
+		if (!stop) {
+			exactQueries(first, second, null, "ppl");
+			if (GeoNamesHelper.debug) System.err.println("XQueried for Populated Place.\t\tResults: " + this.numResults);
+			stop = endTier(3);
+		}
 
 		// Then admin 1
-		exactQueries(first, second, null, "adm1");
-		if (GeoNamesHelper.debug) System.err.println("XQueried for Admin1.\t\t\tResults: " + this.numResults);
+		if (!stop) {
+			exactQueries(first, second, null, "adm1");
+			if (GeoNamesHelper.debug) System.err.println("XQueried for Admin1.\t\t\tResults: " + this.numResults);
+			stop = endTier(4);
+		}
 
 		// Then admin 2
-		exactQueries(first, second, null, "adm2");
-		if (GeoNamesHelper.debug) System.err.println("XQueried for Admin2.\t\t\tResults: " + this.numResults);
+		if (!stop) {
+			exactQueries(first, second, null, "adm2");
+			if (GeoNamesHelper.debug) System.err.println("XQueried for Admin2.\t\t\tResults: " + this.numResults);
+			stop = endTier(5);
+		}
 
 		// Then all others
-		exactQueries(first, second, null, null);
-		if (GeoNamesHelper.debug) System.err.println("XQueried for Others.\t\t\tResults: " + this.numResults);
+		if (!stop) {
+			exactQueries(first, second, null, null);
+			if (GeoNamesHelper.debug) System.err.println("XQueried for Others.\t\t\tResults: " + this.numResults);
+			endTier(6);
+		}
 
 
 
@@ -415,17 +709,19 @@ public class GeoNamesHelper {
 		 * No exact searches found matches, so we'll switch to ngrams search followed by
 		 * post-processing of those results.
 		 */
-		if (numResults == 0) {
+		if (numResults == 0 && !broken) {
 
 			// Mark that we made it to this undesirable place
 			didNGramsSearch = true;
 
-			// Perform the undesired queries
+			// Perform the undesired queries, scoring their results as they come in.  This includes splitting
+			// strings and possible matches into ngrams and calculating difference/overlap/etc metrics.
+			ngramCandidates = new NGramCandidates(first.toLowerCase().trim(), 3, new DifferenceNGramsComparator(), ORDERED_NGRAM_RESULTS);
 			undesiredQueries(first, second, country, query);
 
-			// Sort, filter and order the results by post-processing.  This includes splitting strings and
-			// possible matches into ngrams and calculating difference/overlap/etc metrics.
-			betterResults = this.getOrderedResultsByNGramsDifference(first, 3);
+			// Sort, filter and order the results by post-processing.
+			betterResults = this.getOrderedResultsByNGramsDifference(ngramCandidates);
+			ngramCandidates = null;
 
 			// If we made it here, then the ordering of betterResults is better than that of the
 			// real results, so we'll replace results with betterResults
@@ -438,6 +734,11 @@ public class GeoNamesHelper {
 			}
 		}
 
+		if (tierReport && !broken) {
+			endTier(SEARCH_TIERS.length - 1);
+			SearchTierReport.getInstance().record(SEARCH_TIERS, tierTops, tierConfidences, tierQueries, stopConfidence, stopTier);
+		}
+
 		// Return whether a result was found
 		if (results.size() > 0) {
 			if (GeoNamesHelper.debug) System.err.println("===================\nFound a result.\n\tName: " + this.getGeonamesName() + "\n\tConfidence: " + this.getConfidence());
@@ -522,7 +823,7 @@ public class GeoNamesHelper {
 	 * @return Top Geonames XML result as a String, if found, or null otherwise.
 	 */
 	public String exactQueries(String first, String second, String country, String type) {
-		String cheshireResult = null;
+		ArrayList<String> queries = new ArrayList<String>();
 		String countryQuery = "";
 		String typeQuery = "";
 		// Set up the country, if it exists
@@ -549,19 +850,13 @@ public class GeoNamesHelper {
 			//   " doesn't actually escape if there are Cheshire commands in the search term
 			// adding [5=100] on exactname 1/15/14 to do a true exact match (without only does a
 			//   startsWith match in cheshire
-			out.println("find exactname[5=100] '" + first + "' and admin1 '" + second + "'" + countryQuery + typeQuery);
-			cheshireResult = in.readLine();
-			addResult(cheshireResult);
-			if (GeoNamesHelper.debug) System.err.println("   Exact Name w/ admin1.\tResults: " + this.numResults);
+			queries.add("find exactname[5=100] '" + first + "' and admin1 '" + second + "'" + countryQuery + typeQuery);
 
 
 			// Next try an EXACT query for first as an international name and second as the admin1 (state-level)
 			// 
 			// Check for an international name matching, which may be a little better
-			out.println("find xintlname[5=100] '" + first + "' and admin1 '" + second + "'" + countryQuery + typeQuery);
-			cheshireResult = in.readLine();
-			addResult(cheshireResult);
-			if (GeoNamesHelper.debug) System.err.println("   Exact Intl Name w/ admin1.\tResults: " + this.numResults);
+			queries.add("find xintlname[5=100] '" + first + "' and admin1 '" + second + "'" + countryQuery + typeQuery);
 
 			// Next, if first and second are not identical.  This leads to other possible queries
 			if (!first.equals(second)) {
@@ -573,10 +868,7 @@ public class GeoNamesHelper {
 				String stateSN = checkForUSState(first, second);
 				if (stateSN != null) {
 					// Do the query
-					out.println("find exactname[5=100] '" + first + "' and admin1 '" + stateSN + "'" + countryQuery + typeQuery);
-					cheshireResult = in.readLine();
-					addResult(cheshireResult);
-					if (GeoNamesHelper.debug) System.err.println("   Exact Name w/ US State.\tResults: " + this.numResults);
+					queries.add("find exactname[5=100] '" + first + "' and admin1 '" + stateSN + "'" + countryQuery + typeQuery);
 				} 
 
 
@@ -585,23 +877,19 @@ public class GeoNamesHelper {
 				if (countries.containsKey(second)) {
 					// NOTE: we're going to search for international names, since we may have non-ascii characters such as
 					// umlauts.
-					out.println("find xcountry '" + countries.get(second) + "' and xintlname[5=100] @ '" + first +"'" + typeQuery);
-					cheshireResult = in.readLine();
-					addResult(cheshireResult);
-					if (GeoNamesHelper.debug) System.err.println("   Exact Intl Name w/ country.\tResults: " + this.numResults);
+					queries.add("find xcountry '" + countries.get(second) + "' and xintlname[5=100] @ '" + first +"'" + typeQuery);
 				}
 
 				// redo the last search but with country instead of second (if country is set)
 				if (country != null && countries.containsKey(country)) {
-					out.println("find xcountry '" + countries.get(country) + "' and xintlname[5=100] '" + first +"'" + typeQuery);
-					cheshireResult = in.readLine();
-					addResult(cheshireResult);
-					if (GeoNamesHelper.debug) System.err.println("   Exact Intl Name w/ country2.\tResults: " + this.numResults);
+					queries.add("find xcountry '" + countries.get(country) + "' and xintlname[5=100] '" + first +"'" + typeQuery);
 				}
 			}
 
+			runQueries(queries);
+
 			if (results.size() > 0)
-				return results.get(0);
+				return results.get(0).getXML();
 
 			return null;	
 		} catch (Exception e) {
@@ -644,8 +932,7 @@ public class GeoNamesHelper {
 
 			// Try a ranking name query by keyword
 			if (numResults == 0) {
-				out.println("find name @ '" + first + "' and admin1 @ '" + second + "'" + countryQuery);
-				cheshireResult = in.readLine();
+				cheshireResult = sendQuery("find name @ '" + first + "' and admin1 @ '" + second + "'" + countryQuery);
 				addResult(cheshireResult);
 				if (GeoNamesHelper.debug) System.err.println("Query keyword Name w/ admin1.\t\tResults: " + this.numResults);
 			}
@@ -658,8 +945,7 @@ public class GeoNamesHelper {
 			// Search Geonames name, admin, alt names for ngram matches.  Cheshire does NOT do post processing to clean up the
 			// results, so these results must be post processed!
 			if (numResults == 0) {
-				out.println("find ngram_wadmin '" + query + "'");
-				cheshireResult = in.readLine();
+				cheshireResult = sendQuery("find ngram_wadmin '" + query + "'");
 				addResult(cheshireResult);
 				if (GeoNamesHelper.debug) System.err.println("Query ngrams w/admin on entire string.\tResults: " + this.numResults);
 			}
@@ -672,36 +958,32 @@ public class GeoNamesHelper {
 			/* 
 			// Next, try a query on just ngrams in the name/admin code plus ranking of exact name (for bad state names)
 			if (numResults == 0) {
-				out.println("find ngram '" + first + "' and exactname @ '" + first + "'" + countryQuery);
-				cheshireResult = in.readLine();
+				cheshireResult = sendQuery("find ngram '" + first + "' and exactname @ '" + first + "'" + countryQuery);
 				addResult(cheshireResult);
 			}
 
 			// Next, try a looking for matching ngrams
 			if (numResults == 0) {
-				out.println("find ngram '" + first + "' and name_wadmin @ '" + query + "'" + countryQuery);
-				cheshireResult = in.readLine();
+				cheshireResult = sendQuery("find ngram '" + first + "' and name_wadmin @ '" + query + "'" + countryQuery);
 				addResult(cheshireResult);
 			}
 
 			// Next, try looking for just ngrams and keyword name
 			if (numResults == 0) {
-				out.println("find ngram '" + first + "' and name @ '" + first + "'" + countryQuery);
-				cheshireResult = in.readLine();
+				cheshireResult = sendQuery("find ngram '" + first + "' and name @ '" + first + "'" + countryQuery);
 				addResult(cheshireResult);
 			}
 
 			// Finally, just check ngrams
 			if (numResults == 0) {
-				out.println("find ngram_all_wadmin '" + query + "'" + countryQuery);
-				cheshireResult = in.readLine();
+				cheshireResult = sendQuery("find ngram_all_wadmin '" + query + "'" + countryQuery);
 				addResult(cheshireResult);
 			}
 			 */
 			//**********************************************************************************************************
 
 			if (results.size() > 0)
-				return results.get(0);
+				return results.get(0).getXML();
 
 			return null;	
 		} catch (Exception e) {
@@ -716,8 +998,8 @@ public class GeoNamesHelper {
 	 */
 	public String getAllUniqueResults() {
 		String result = "";
-		for (String res : uniqueResults) {
-			result += res;
+		for (GeoNamesRecord res : uniqueResults) {
+			result += res.getXML();
 		}
 		return result;
 	}
@@ -732,8 +1014,8 @@ public class GeoNamesHelper {
 	 */
 	public String getAllOrderedResults() {
 		String result = "";
-		for (String res : results) {
-			result += res;
+		for (GeoNamesRecord res : results) {
+			result += res.getXML();
 		}
 		return result;
 	}
@@ -749,8 +1031,8 @@ public class GeoNamesHelper {
 	public String getAllOrderedResults(int max) {
 		String result = "";
 		int i = 0;
-		for (String res : results) {
-			result += res;
+		for (GeoNamesRecord res : results) {
+			result += res.getXML();
 			if (i++ > max) break;
 		}
 		return result;
@@ -759,14 +1041,15 @@ public class GeoNamesHelper {
 
 	/**
 	 * Gets all Cheshire results (in Geonames XML format) that were returned.  This method is OVERKILL.
-	 * There may be duplicates in this list.
+	 * There may be duplicates in this list.  Results of the n-gram search are scored as they arrive and
+	 * are not kept here.
 	 * 
 	 * @return String of concatenated XML results from Cheshire.
 	 */
 	public String getAllResultsCheshireEverReturned() {
 		String result = "";
-		for (String res: overkill) {
-			result += res;
+		for (GeoNamesRecord res : overkill) {
+			result += res.getXML();
 		}
 		return result;
 	}
@@ -778,8 +1061,8 @@ public class GeoNamesHelper {
 	 */
 	public String getAllFixedUpResultsCheshireEverReturned() {
 		String result = "";
-		for (String res: betterResults) {
-			result += res;
+		for (GeoNamesRecord res : betterResults) {
+			result += res.getXML();
 		}
 		return result;
 	}
@@ -828,12 +1111,12 @@ public class GeoNamesHelper {
 			//     (number of times top result appeared) / numResults.  
 			// 
 			int count = 0;
-			String result = results.get(0);
+			GeoNamesRecord result = results.get(0);
 
 			// For each XML result, check to see how many times the top result was selected.  We only want to count
 			// unique results.  But, we want to favor our result if it appeared multiple times in our searches,
 			// so we won't use 1 / numberUniqueResults. (The more times it shows up, the more confident we are).
-			for (String res : results) {
+			for (GeoNamesRecord res : results) {
 				if (result.equals(res))
 					count++;
 			}
@@ -904,11 +1187,29 @@ public class GeoNamesHelper {
 	}
 
 	/**
-	 * Creates a hashmap of countries of the world as full name -> ISO standard abbreviation
+	 * Gets a copy of the map of countries of the world as full name -> ISO standard abbreviation
 	 * 
 	 * @return Hashmap of all countries
 	 */
 	public HashMap<String, String> getCountries() {
+		return new HashMap<String, String>(countries);
+	}
+
+	/**
+	 * Gets a copy of the map of US/Canada states and territories as full name -> abbreviation
+	 * 
+	 * @return Hashmap of all states and abbreviations
+	 */
+	public HashMap<String, String> getStates() {
+		return new HashMap<String, String>(states);
+	}
+
+	/**
+	 * Creates a hashmap of countries of the world as full name -> ISO standard abbreviation
+	 * 
+	 * @return Hashmap of all countries
+	 */
+	private static HashMap<String, String> buildCountries() {
 		HashMap<String, String> countries = new HashMap<String, String>();
 		for (String iso : Locale.getISOCountries()) {
 			Locale l = new Locale("", iso);
@@ -934,7 +1235,7 @@ public class GeoNamesHelper {
 	 * 
 	 * @return Hashmap of all states and abbreviations
 	 */
-	public HashMap<String, String> getStates() {
+	private static HashMap<String, String> buildStates() {
 		HashMap<String, String> states = new HashMap<String, String>();
 		// Fix for District of Columbia
 		states.put("district of columbia", "dc");
@@ -1014,6 +1315,21 @@ public class GeoNamesHelper {
 		return states;
 	}
 
+	/**
+	 * Creates the reverse of a name -> abbreviation map.  Where several names share an abbreviation, the
+	 * last name in the map's iteration order is kept, as the reverse lookups have always done.
+	 * 
+	 * @param names Map of names to abbreviations
+	 * @return Unmodifiable map of abbreviations to names
+	 */
+	private static Map<String, String> reverse(Map<String, String> names) {
+		HashMap<String, String> reversed = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : names.entrySet()) {
+			reversed.put(entry.getValue(), entry.getKey());
+		}
+		return Collections.unmodifiableMap(reversed);
+	}
+
 	/**
 	 * Checks for fuzzy state names in the second position in the comma separated string
 	 * 
@@ -1105,7 +1421,7 @@ public class GeoNamesHelper {
 	 */
 	public String getGeonamesEntry() {
 		if (results.size() > 0)
-			return results.get(0);
+			return results.get(0).getXML();
 		return null;
 	} 
 
@@ -1115,11 +1431,8 @@ public class GeoNamesHelper {
 	 * @return String geonames id or null if there was a problem
 	 */
 	public String getGeonamesId() {
-		if (resultDoc == null)
-			parseResult();
-		if (resultDoc != null) {
-			return resultDoc.getElementsByTagName("geonameid").item(0).getTextContent();
-		}
+		if (results.size() > 0)
+			return results.get(0).getGeonameId();
 		return null;
 	}
 
@@ -1129,11 +1442,8 @@ public class GeoNamesHelper {
 	 * @return String name or null if there was a problem
 	 */
 	public String getGeonamesName() {
-		if (resultDoc == null)
-			parseResult();
-		if (resultDoc != null) {
-			return resultDoc.getElementsByTagName("name").item(0).getTextContent();
-		}
+		if (results.size() > 0)
+			return results.get(0).getName();
 		return null;
 	}
 
@@ -1143,11 +1453,8 @@ public class GeoNamesHelper {
 	 * @return String latitude or null if there was a problem
 	 */
 	public String getGeonamesLatitude() {
-		if (resultDoc == null)
-			parseResult();
-		if (resultDoc != null) {
-			return resultDoc.getElementsByTagName("latitude").item(0).getTextContent();
-		}
+		if (results.size() > 0)
+			return results.get(0).getLatitude();
 		return null;
 	}
 
@@ -1157,118 +1464,38 @@ public class GeoNamesHelper {
 	 * @return String longitude or null if there was a problem
 	 */
 	public String getGeonamesLongitude() {
-		if (resultDoc == null)
-			parseResult();
-		if (resultDoc != null) {
-			return resultDoc.getElementsByTagName("longitude").item(0).getTextContent();
-		}
+		if (results.size() > 0)
+			return results.get(0).getLongitude();
 		return null;
 	}
 
 	/**
-	 *  Parses the resulting Geonames XML row into the Document object resultDoc for later use.
-	 */
-	private void parseResult() {
-		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			resultDoc = dBuilder.parse(new ByteArrayInputStream(results.get(0).getBytes()));
-
-			resultDoc.getDocumentElement().normalize();
-
-		} catch (Exception e) {
-			resultDoc = null;
-
-		}
-	}
-
-	/**
-	 * Parses the given cheshire Geonames XML result and returns the name.
-	 * 
-	 * @param cheshireResult Geonames XML result string.
-	 * @return String name from the result.
-	 */
-	private String getGeonamesName(String cheshireResult) {
-		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document res = dBuilder.parse(new ByteArrayInputStream(cheshireResult.getBytes()));
-
-			res.getDocumentElement().normalize();
-			return res.getElementsByTagName("name").item(0).getTextContent();
-		} catch (Exception e) {
-			return null;
-
-		}
-	}
-
-	/**
-	 * Parses the given cheshire Geonames XML result and returns the population.
-	 * 
-	 * @param cheshireResult Geonames XML result string.
-	 * @return String population from the result.
-	 */
-	private String getGeonamesPop(String cheshireResult) {
-		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document res = dBuilder.parse(new ByteArrayInputStream(cheshireResult.getBytes()));
-
-			res.getDocumentElement().normalize();
-			return res.getElementsByTagName("population").item(0).getTextContent();
-		} catch (Exception e) {
-			return null;
-
-		}
-	}
-
-	/**
-	 * Parses the given cheshire Geonames XML result and returns the number of alternate names.
+	 * Parses the given cheshire Geonames XML result and returns the values of the return XML for this object,
+	 * keyed by the return element name (geonameId, name, admin1, country, latitude, longitude) in that order.
 	 * 
 	 * @param cheshireResult Geonames XML result string.
-	 * @return int number of alternate names.
+	 * @return Map of return element names to values, or null if the result couldn't be parsed.
 	 */
-	private int getGeonamesNumAltNames(String cheshireResult) {
-		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document res = dBuilder.parse(new ByteArrayInputStream(cheshireResult.getBytes()));
-
-			res.getDocumentElement().normalize();
-			return res.getElementsByTagName("alt").getLength();
-		} catch (Exception e) {
-			return 0;
-
-		}
+	public Map<String, String> getReturnValues(String cheshireResult) {
+		return new GeoNamesRecord(cheshireResult).getReturnValues();
 	}
 	
 	/**
 	 * Parses the given cheshire Geonames XML result and creates the return XML for this object.
 	 * 
-	 * @param cheshireResult Geonames XML result string.
+	 * @param cheshireResult Parsed Geonames XML result.
 	 * @return String return XML of the geonames string
 	 */
-	private String getXMLReturnValue(String cheshireResult) {
-		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document res = dBuilder.parse(new ByteArrayInputStream(cheshireResult.getBytes()));
-
-			res.getDocumentElement().normalize();
-			
-			String ret = "";
-			ret += "<geonameId>" + res.getElementsByTagName("geonameid").item(0).getTextContent() + "</geonameId>";
-			ret += "<name>" + res.getElementsByTagName("name").item(0).getTextContent() + "</name>";
-			ret += "<admin1>" + res.getElementsByTagName("admin1").item(0).getTextContent() + "</admin1>";
-			ret += "<country>" + res.getElementsByTagName("country_code").item(0).getTextContent() + "</country>";
-			ret += "<latitude>" + res.getElementsByTagName("latitude").item(0).getTextContent() + "</latitude>";
-			ret += "<longitude>" + res.getElementsByTagName("longitude").item(0).getTextContent() + "</longitude>";
-			
-			return ret;
-		} catch (Exception e) {
+	private String getXMLReturnValue(GeoNamesRecord cheshireResult) {
+		Map<String, String> values = cheshireResult.getReturnValues();
+		if (values == null)
 			return "<error>Couldn't parse geonames result correctly.</error>";
-
+		
+		String ret = "";
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			ret += "<" + value.getKey() + ">" + value.getValue() + "</" + value.getKey() + ">";
 		}
+		return ret;
 	}
 
 	/**
@@ -1280,6 +1507,15 @@ public class GeoNamesHelper {
 		return this.getXMLReturnValue(results.get(0));
 	}
 	
+	/**
+	 * Gets the values of the top Cheshire result, as given by <code>getReturnValues</code>.
+	 * 
+	 * @return Map of return element names to values, or null if the result couldn't be parsed.
+	 */
+	public Map<String, String> getTopReturnValues() {
+		return results.get(0).getReturnValues();
+	}
+	
 	/**
 	 * Gets top <code>max</code> Cheshire results (in normalized XML format), in order based on when they were found.  
 	 * Matches for more exact queries will be first, with the top match first. There may be duplicates in this list.
@@ -1290,7 +1526,7 @@ public class GeoNamesHelper {
 	public String getTopReturnResults(int max) {
 		String result = "";
 		int i = 0;
-		for (String res : results) {
+		for (GeoNamesRecord res : results) {
 			result += "<place>" + getXMLReturnValue(res) + "</place>\n";
 			if (i++ > max) break;
 		}
@@ -1307,28 +1543,62 @@ public class GeoNamesHelper {
 	public String getNextUniqueReturnResults(int max) {
 		String result = "";
 		int i = 0;
-		HashSet<String> uniqueResults = new HashSet<String>();
+		HashSet<GeoNamesRecord> uniqueResults = new HashSet<GeoNamesRecord>();
 		uniqueResults.addAll(results);
 		if (results.size() > 0) 
 			uniqueResults.remove(results.get(0));
-		for (String res : uniqueResults) {
+		for (GeoNamesRecord res : uniqueResults) {
 			result += "<place>" + getXMLReturnValue(res) + "</place>\n";
 			if (i++ > max) break;
 		}
 		return result;
 	}
 
+	/**
+	 * Gets the values of the <code>max</code> next Cheshire results, as given by <code>getReturnValues</code>, in no 
+	 * particular order.  It ignores the first best match and contains the same results as 
+	 * <code>getNextUniqueReturnResults</code>.  Results that couldn't be parsed are null in the list.
+	 * 
+	 * @param max Maximum number of results to return
+	 * @return List of maps of return element names to values.
+	 */
+	public List<Map<String, String>> getNextUniqueReturnValues(int max) {
+		List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+		int i = 0;
+		HashSet<GeoNamesRecord> uniqueResults = new HashSet<GeoNamesRecord>();
+		uniqueResults.addAll(results);
+		if (results.size() > 0) 
+			uniqueResults.remove(results.get(0));
+		for (GeoNamesRecord res : uniqueResults) {
+			result.add(res.getReturnValues());
+			if (i++ > max) break;
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the final result of the query: the confidence, the values of the top result and the values of
+	 * the <code>max</code> next unique results.
+	 * 
+	 * @param max Maximum number of other results to include
+	 * @return Result of the query, or the empty result if nothing was found.
+	 */
+	public GeoNamesResult getResult(int max) {
+		if (results.size() == 0)
+			return GeoNamesResult.EMPTY;
+		return new GeoNamesResult(getConfidence(), getTopReturnValues(), getNextUniqueReturnValues(max));
+	}
+
 	/**
 	 *  The following code post-processes NGRAMS searches
 	 *  ========================================================================
 	 */
 	
 	/**
-	 * Orders the candidate results from Cheshire to produce a better resulting set.  Given the first part of the
-	 * query string and the length of ngrams used, this method breaks <code>first</code> into ngrams.  It then
-	 * breaks the GeoName <code>name</code> for each of the Cheshire results into ngrams as well.  It then adds
-	 * all results that have at least 1 ngram-overlap with <code>first</code> to a list, then sorts them using
-	 * the DifferenceNGramsComparator, which sorts in the following order:
+	 * Orders the candidate results from Cheshire to produce a better resulting set.  The candidates were scored
+	 * against the first part of the query string as Cheshire returned them: each result's GeoName <code>name</code>
+	 * was broken into ngrams, and results with more than 1 ngram-overlap with <code>first</code> were kept in the
+	 * order of the DifferenceNGramsComparator, which sorts in the following order:
 	 * <ol>
 	 * <li> Sort by difference between strings (number of ngrams not matched) (ascending)
 	 * <li> Sort by number of overlapping ngrams (descending)
@@ -1345,72 +1615,36 @@ public class GeoNamesHelper {
 	 * </ol>
 	 * 
 	 * Also, the number of total results stored is calculated by the top 3 tiers of matches, ie the top three levels
-	 * of ngram overlap or ngram difference from <code>first</code>.
+	 * of ngram overlap or ngram difference from <code>first</code>.  This counts all candidates, though only the
+	 * best <code>ORDERED_NGRAM_RESULTS</code> are returned.
 	 * 
-	 * @param first First part of the query string
-	 * @param ngramLength Number of characters per ngram
+	 * @param candidates Candidates scored against the first part of the query string
 	 * @return List of ordered results
 	 */
-	private ArrayList<String> getOrderedResultsByNGramsDifference(String first, int ngramLength) {
-		ArrayList<String> ret = new ArrayList<String>();
-		ArrayList<GeolocationString> toSort = new ArrayList<GeolocationString>();
+	private ArrayList<GeoNamesRecord> getOrderedResultsByNGramsDifference(NGramCandidates candidates) {
+		ArrayList<GeoNamesRecord> ret = new ArrayList<GeoNamesRecord>();
+		List<GeolocationString> sorted = candidates.getBest();
+		GeolocationString ngramFirst = candidates.getMaster();
 
-		GeolocationString ngramFirst = new GeolocationString(first.toLowerCase().trim(), ngramLength);
-
-		// Put each candidate from overkill into the new object
-		for (String candidateXML : this.overkill) {
-			if (candidateXML != null) {
-				String candidate = getGeonamesName(candidateXML);
-				if (candidate != null) {
-					GeolocationString tmp = new GeolocationString(candidate.toLowerCase().replace("(historical)", "").trim(), ngramLength);
-					tmp.setNGramMaster(ngramFirst);
-					tmp.storeData(candidateXML);
-					tmp.setPopulation(getGeonamesPop(candidateXML));
-					tmp.setNumAltNames(getGeonamesNumAltNames(candidateXML));
-					if (tmp.getOverlap() > 1)
-						toSort.add(tmp);
-				}
-			}
-		}
-		
-		Collections.sort(toSort, new DifferenceNGramsComparator());
-
-
-		for (GeolocationString sorted : toSort) {
-			ret.add((String) sorted.getData());
+		for (GeolocationString str : sorted) {
+			ret.add((GeoNamesRecord) str.getData());
 		}
 
 		// Do some number crunching for the confidence information
 		// Since at least one result has been sorted.
-		if (toSort.size() > 0) {
-			int count = 0;
-			if (toSort.get(0).getString().equals(ngramFirst.getString())) { 
+		if (sorted.size() > 0) {
+			if (sorted.get(0).getString().equals(ngramFirst.getString())) { 
 				// we have an exact match at top! So, only count the number of exact names present.
 				// This is simplified, since we might have matched an alternate name.
-				for (GeolocationString str : toSort) {
-					if (str.getString().equals(ngramFirst.getString())) {
-						count++;
-					}
-				}
+				this.numResults = candidates.getExactMatches();
 			} else {
-				int curOverlap = toSort.get(0).getOverlap();
-				int curDiff = toSort.get(0).getDifference();
-				int stepDown = 0;
-				for (GeolocationString str : toSort) {
-					if (str.getOverlap() != curOverlap || str.getDifference() != curDiff) {
-						if (stepDown > 2) break; // if we've passed two steps down, then quit.
-						stepDown++;
-						curOverlap = str.getOverlap();
-						curDiff = str.getDifference();
-					}
-					count++;
-				}
+				// Count the results in the top four steps of (difference, overlap)
+				this.numResults = candidates.getTopTierCount();
 			}
-			this.numResults = count;
 
-			if (toSort.get(0).getString().replace(" ", "").equals(ngramFirst.getString().replace(" ", "")))
+			if (sorted.get(0).getString().replace(" ", "").equals(ngramFirst.getString().replace(" ", "")))
 				this.discountConfidence  = 0.5; // Can't trust even an exact match from ngrams at 100%
-			else if (toSort.get(0).getString().replace(" ", "").contains(ngramFirst.getString().replace(" ", "")))
+			else if (sorted.get(0).getString().replace(" ", "").contains(ngramFirst.getString().replace(" ", "")))
 				this.discountConfidence  = 0.1; // If it's not an exact match, we can trust it even less
 			else 
 				this.discountConfidence  = 0.01; // If it doesn't even contain all of the original string, it's REALLY hard to trust
@@ -1435,19 +1669,19 @@ public class GeoNamesHelper {
 	 * @return List of results that are <code>diff</code> number of characters longer/shorter than <code>first</code>
 	 */
 	@SuppressWarnings("unused")
-	private ArrayList<String> getSimilarLengthResults(String first, int diff) {
+	private ArrayList<GeoNamesRecord> getSimilarLengthResults(String first, int diff) {
 		// Sanity checks
 		if (first == null)
-			return new ArrayList<String>();
+			return new ArrayList<GeoNamesRecord>();
 		if (overkill == null || overkill.isEmpty())
-			return new ArrayList<String>();
+			return new ArrayList<GeoNamesRecord>();
 
-		ArrayList<String> sls = new ArrayList<String>();
+		ArrayList<GeoNamesRecord> sls = new ArrayList<GeoNamesRecord>();
 		int strLen = first.length();
 
-		for (String candidateXML : this.overkill) {
+		for (GeoNamesRecord candidateXML : this.overkill) {
 			if (candidateXML != null) {
-				String candidate = getGeonamesName(candidateXML);
+				String candidate = candidateXML.getName();
 				if (candidate != null && candidate.length() <= strLen + diff && candidate.length() >= strLen - diff) {
 					sls.add(candidateXML);
 				}
@@ -1469,38 +1703,37 @@ public class GeoNamesHelper {
 	 * <li> Sort by alternate names (descending)
 	 * <li> Sort by population (descending)
 	 * </ol>
+	 * Only the first <code>ORDERED_NGRAM_RESULTS</code> results are sorted; the rest follow in their original order.
 	 * 
 	 * @param first First part of the query string
 	 * @param ngramLength Number of characters per ngram
 	 * @return List of ordered results
 	 */
 	@SuppressWarnings("unused")
-	private ArrayList<String> getOrderedResultsByNGrams(String first, int ngramLength) {
-		ArrayList<String> ret = new ArrayList<String>();
+	private ArrayList<GeoNamesRecord> getOrderedResultsByNGrams(String first, int ngramLength) {
+		ArrayList<GeoNamesRecord> ret = new ArrayList<GeoNamesRecord>();
 		ArrayList<GeolocationString> toSort = new ArrayList<GeolocationString>();
 
 		GeolocationString ngramFirst = new GeolocationString(first.toLowerCase().trim(), ngramLength);
 
 		// Put each candidate from overkill into the new object
-		for (String candidateXML : this.overkill) {
+		for (GeoNamesRecord candidateXML : this.overkill) {
 			if (candidateXML != null) {
-				String candidate = getGeonamesName(candidateXML);
+				String candidate = candidateXML.getName();
 				if (candidate != null) {
 					GeolocationString tmp = new GeolocationString(candidate.toLowerCase().replace("(historical)", "").trim(), ngramLength);
 					tmp.setNGramMaster(ngramFirst);
 					tmp.storeData(candidateXML);
-					tmp.setPopulation(getGeonamesPop(candidateXML));
-					tmp.setNumAltNames(getGeonamesNumAltNames(candidateXML));
+					tmp.setPopulation(candidateXML.getPopulation());
+					tmp.setNumAltNames(candidateXML.getNumAltNames());
 					if (tmp.getOverlap() > 1)
 						toSort.add(tmp);
 				}
 			}
 		}
 
-		Collections.sort(toSort, new OriginalNGramsComparator());
-
-		for (GeolocationString sorted : toSort) {
-			ret.add((String) sorted.getData());
+		for (GeolocationString sorted : TopSelector.selectTop(toSort, new OriginalNGramsComparator(), ORDERED_NGRAM_RESULTS)) {
+			ret.add((GeoNamesRecord) sorted.getData());
 		}
 
 		return ret;
@@ -1520,28 +1753,30 @@ public class GeoNamesHelper {
 	 * <li> Sort by string length (descending)
 	 * <li> Sort by population (descending)
 	 * </ol>
+	 * Only the first <code>ORDERED_NGRAM_RESULTS</code> results are sorted by the FlexibleNGramsComparator; the
+	 * rest follow in the order of the OriginalNGramsComparator, which also breaks ties.
 	 * 
 	 * @param first First part of the query string
 	 * @param ngramLength Number of characters per ngram
 	 * @return List of ordered results
 	 */
 	@SuppressWarnings("unused")
-	private ArrayList<String> getOrderedResultsByNGramsFlexible(String first, int ngramLength) {
-		ArrayList<String> ret = new ArrayList<String>();
+	private ArrayList<GeoNamesRecord> getOrderedResultsByNGramsFlexible(String first, int ngramLength) {
+		ArrayList<GeoNamesRecord> ret = new ArrayList<GeoNamesRecord>();
 		ArrayList<GeolocationString> toSort = new ArrayList<GeolocationString>();
 
 		GeolocationString ngramFirst = new GeolocationString(first.toLowerCase().trim(), ngramLength);
 
 		// Put each candidate from overkill into the new object
-		for (String candidateXML : this.overkill) {
+		for (GeoNamesRecord candidateXML : this.overkill) {
 			if (candidateXML != null) {
-				String candidate = getGeonamesName(candidateXML);
+				String candidate = candidateXML.getName();
 				if (candidate != null) {
 					GeolocationString tmp = new GeolocationString(candidate.toLowerCase().replace("(historical)", "").trim(), ngramLength);
 					tmp.setNGramMaster(ngramFirst);
 					tmp.storeData(candidateXML);
-					tmp.setPopulation(getGeonamesPop(candidateXML));
-					tmp.setNumAltNames(getGeonamesNumAltNames(candidateXML));
+					tmp.setPopulation(candidateXML.getPopulation());
+					tmp.setNumAltNames(candidateXML.getNumAltNames());
 					if (tmp.getOverlap() > 1)
 						toSort.add(tmp);
 				}
@@ -1549,6 +1784,8 @@ public class GeoNamesHelper {
 		}
 
 		if (!toSort.isEmpty()) {
+			// A full (stable) sort is kept here: FlexibleNGramsComparator ties are left in this order, so
+			// equally flexible results still come out in order of overlap
 			Collections.sort(toSort, new OriginalNGramsComparator());
 
 			int maxOverlap = toSort.get(0).getOverlap();
@@ -1562,10 +1799,8 @@ public class GeoNamesHelper {
 					itr.remove(); 
 			}
 
-			Collections.sort(toSort, new FlexibleNGramsComparator());
-
-			for (GeolocationString sorted : toSort) {
-				ret.add((String) sorted.getData());
+			for (GeolocationString sorted : TopSelector.selectTop(toSort, new FlexibleNGramsComparator(), ORDERED_NGRAM_RESULTS)) {
+				ret.add((GeoNamesRecord) sorted.getData());
 			}
 		}
 
@@ -1574,4 +1809,37 @@ public class GeoNamesHelper {
 
 	}
 
+	/**
+	 * Main method used for testing purposes: times creating helpers, which no longer build the country
+	 * and state maps, against building those maps once per helper as was done before.
+	 * 
+	 * @param args optionally, the number of helpers to create (default 10000)
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+		// Warm up both paths
+		for (int i = 0; i < 1000; i++) {
+			new GeoNamesHelper();
+			buildCountries();
+			buildStates();
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			new GeoNamesHelper();
+		}
+		long shared = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			new GeoNamesHelper();
+			buildCountries();
+			buildStates();
+		}
+		long perHelper = System.nanoTime() - start;
+
+		System.out.println("Shared maps:     " + (shared / n) + " ns per helper");
+		System.out.println("Per-helper maps: " + (perHelper / n) + " ns per helper");
+	}
 }
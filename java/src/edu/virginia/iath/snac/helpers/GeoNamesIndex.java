@@ -0,0 +1,714 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * In-process index of a GeoNames dump (<code>allCountries.txt</code> or any of the per-country or cities
+ * files, in the tab-separated GeoNames format), used in place of cheshire when the
+ * <code>snac.geonames.index</code> system property names the dump file.
+ * <p>
+ * The index answers the cheshire <code>find</code> commands that GeoNamesHelper sends, with results in the
+ * same Geonames XML form that cheshire displays:
+ * <ul>
+ * <li> <code>exactname[5=100] 'x'</code>: the name is x
+ * <li> <code>xintlname[5=100] 'x'</code>: the name, ASCII name or an alternate name is x
+ * <li> <code>name @ 'x'</code>: the name shares words with x, ranked by the number of shared words
+ * <li> <code>ngram_wadmin 'x'</code>: the name and admin1 code share trigrams with x, ranked by the
+ * number of shared trigrams
+ * <li> <code>admin1 'x'</code>, <code>xcountry 'x'</code>, <code>feature_type 'x'</code>: the admin1, country or
+ * feature code is x, combined with the above by <code>and</code>, or by <code>or</code> in parentheses.  With
+ * <code>@</code>, an admin1 match ranks a result higher instead of being required.
+ * </ul>
+ * Names are compared ignoring case and periods.  Results of exact queries are in file order, as cheshire
+ * returns them; ranked queries return at most <code>snac.geonames.indexMaxResults</code> results (default 500).
+ * Ranked queries leave out keys posted for more than <code>snac.geonames.indexMaxPostings</code> records (default
+ * 0, no limit), such as very common words or trigrams, as long as the query has a less common key.
+ * <p>
+ * Only the postings are kept in memory: for each of the exact name, international name, name word and
+ * trigram indexes, an array of record numbers grouped by hashed key.  Records themselves are read back from
+ * the dump file when they match, and keys that share a hash bucket are told apart then.  The whole
+ * <code>allCountries.txt</code> dump needs about 1GB of heap; per-country dumps need far less.
+ *
+ * @author Robbie Hott
+ */
+public class GeoNamesIndex {
+	private static GeoNamesIndex instance = null;
+	private static boolean loaded = false;
+
+	// Columns of the GeoNames dump
+	private static final int ID = 0, NAME = 1, ASCII_NAME = 2, ALT_NAMES = 3, LATITUDE = 4, LONGITUDE = 5,
+			FEATURE_CLASS = 6, FEATURE_CODE = 7, COUNTRY = 8, ADMIN1 = 10, ADMIN2 = 11, POPULATION = 14;
+
+	private final File file;
+	private final int maxResults;
+	private final int maxPostings;
+	private RandomAccessFile data;
+	// Offset (high 40 bits) and length (low 24 bits) of each record's line in the dump
+	private long[] records;
+	private int size = 0;
+	private final Postings exactNames = new Postings(1 << 22);
+	private final Postings intlNames = new Postings(1 << 22);
+	private final Postings words = new Postings(1 << 20);
+	private final Postings grams = new Postings(1 << 18);
+
+	/**
+	 * Record numbers grouped by hashed key, stored as one array of record numbers and the start of each
+	 * bucket's run in it.  Within a run, record numbers are in increasing order.
+	 */
+	private static class Postings {
+		private final int mask;
+		private int[] start;
+		private int[] next;
+		private int[] recs;
+
+		Postings(int buckets) {
+			mask = buckets - 1;
+			start = new int[buckets + 1];
+		}
+
+		/** First pass: counts a key of the bucket. */
+		void count(int bucket) {
+			start[bucket + 1]++;
+		}
+
+		/** Between passes: turns the counts into run starts. */
+		void allocate() {
+			for (int i = 1; i < start.length; i++) {
+				start[i] += start[i - 1];
+			}
+			recs = new int[start[start.length - 1]];
+			next = Arrays.copyOf(start, start.length - 1);
+		}
+
+		/** Second pass: adds a record to the bucket. */
+		void add(int bucket, int rec) {
+			recs[next[bucket]++] = rec;
+		}
+
+		int bucket(int hash) {
+			hash ^= (hash >>> 16);
+			hash *= 0x85ebca6b;
+			hash ^= (hash >>> 13);
+			return hash & mask;
+		}
+	}
+
+	/**
+	 * One condition of a find command: an index name, the term, and whether it was ranked (<code>@</code>).
+	 */
+	private static class Atom {
+		String index;
+		String term;
+		boolean ranked = false;
+		boolean exact = false;
+	}
+
+	/**
+	 * Constructor: Creates an index of the given dump.  The dump is not read until <code>load</code>.
+	 *
+	 * @param file GeoNames dump file.
+	 * @param maxResults Most results returned by a ranked query.
+	 * @param maxPostings Most records a key of a ranked query may be posted for and still be used, or 0 for
+	 * no limit.
+	 */
+	public GeoNamesIndex(File file, int maxResults, int maxPostings) {
+		this.file = file;
+		this.maxResults = maxResults;
+		this.maxPostings = maxPostings;
+	}
+
+	/**
+	 * Gets the shared index, loading the dump named by the <code>snac.geonames.index</code> system property
+	 * on first use.
+	 *
+	 * @return The shared index, or null if no dump is configured or it could not be loaded.
+	 */
+	public static synchronized GeoNamesIndex getInstance() {
+		if (!loaded) {
+			loaded = true;
+			String path = System.getProperty("snac.geonames.index");
+			if (path != null) {
+				try {
+					long start = System.currentTimeMillis();
+					GeoNamesIndex index = new GeoNamesIndex(new File(path), Integer.getInteger("snac.geonames.indexMaxResults", 500),
+							Integer.getInteger("snac.geonames.indexMaxPostings", 0));
+					index.load();
+					instance = index;
+					System.err.println("Loaded " + index.size + " places from " + path + " in "
+							+ (System.currentTimeMillis() - start) + "ms");
+				} catch (IOException e) {
+					System.err.println("Could not load the GeoNames index " + path + ", using cheshire: " + e.getMessage());
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Reads the dump and builds the postings.  The dump is read twice: once to count the keys of each
+	 * bucket, and once to fill them in, so that no memory is used for keys beyond the postings themselves.
+	 *
+	 * @throws IOException if the dump could not be read
+	 */
+	public void load() throws IOException {
+		records = new long[1 << 16];
+		scan(false);
+		exactNames.allocate();
+		intlNames.allocate();
+		words.allocate();
+		grams.allocate();
+		scan(true);
+		exactNames.next = intlNames.next = words.next = grams.next = null;
+		data = new RandomAccessFile(file, "r");
+	}
+
+	/**
+	 * Reads each line of the dump and counts (first pass) or adds (second pass) its keys.
+	 *
+	 * @param fill False to count keys, true to add records.
+	 * @throws IOException if the dump could not be read
+	 */
+	private void scan(boolean fill) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[1 << 16];
+			byte[] line = new byte[4096];
+			int length = 0;
+			long offset = 0;
+			size = 0;
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				for (int i = 0; i < n; i++) {
+					if (buf[i] != '\n') {
+						if (length == line.length)
+							line = Arrays.copyOf(line, length * 2);
+						line[length++] = buf[i];
+					} else {
+						readLine(line, length, offset, fill);
+						offset += length + 1;
+						length = 0;
+					}
+				}
+			}
+			// A last line without a newline
+			if (length > 0)
+				readLine(line, length, offset, fill);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads one line of the dump as the next record, if it has all the columns.
+	 *
+	 * @param line Bytes of the line, without the newline.
+	 * @param length Length of the line.
+	 * @param offset Offset of the line in the dump.
+	 * @param fill False to count keys, true to add records.
+	 * @throws IOException if the line is not UTF-8
+	 */
+	private void readLine(byte[] line, int length, long offset, boolean fill) throws IOException {
+		String[] row = new String(line, 0, length, "UTF-8").split("\t", -1);
+		if (row.length <= POPULATION || length >= (1 << 24))
+			return;
+		if (!fill) {
+			if (size == records.length)
+				records = Arrays.copyOf(records, size * 2);
+			records[size] = (offset << 24) | length;
+		}
+		indexRecord(size++, row, fill);
+	}
+
+	/**
+	 * Counts or adds the keys of one record in each of the postings.  Each key is counted once per record.
+	 *
+	 * @param rec Record number.
+	 * @param row Columns of the record.
+	 * @param fill False to count keys, true to add the record.
+	 */
+	private void indexRecord(int rec, String[] row, boolean fill) {
+		String name = normalize(row[NAME]);
+		post(exactNames, exactNames.bucket(name.hashCode()), rec, fill);
+
+		Set<String> intl = new HashSet<String>();
+		intl.add(name);
+		intl.add(normalize(row[ASCII_NAME]));
+		for (String alt : row[ALT_NAMES].split(",")) {
+			intl.add(normalize(alt));
+		}
+		intl.remove("");
+		for (String key : intl) {
+			post(intlNames, intlNames.bucket(key.hashCode()), rec, fill);
+		}
+
+		for (int bucket : bucketsOf(words, wordHashes(name))) {
+			post(words, bucket, rec, fill);
+		}
+		for (int bucket : bucketsOf(grams, gramHashes(name + ", " + normalize(row[ADMIN1])))) {
+			post(grams, bucket, rec, fill);
+		}
+	}
+
+	private static void post(Postings postings, int bucket, int rec, boolean fill) {
+		if (fill)
+			postings.add(bucket, rec);
+		else
+			postings.count(bucket);
+	}
+
+	/**
+	 * Gets the distinct buckets of a list of key hashes, so that a record is posted to each bucket once.
+	 *
+	 * @param postings Postings the buckets belong to.
+	 * @param hashes Key hashes.
+	 * @return Distinct buckets, in increasing order.
+	 */
+	private static int[] bucketsOf(Postings postings, int[] hashes) {
+		int[] buckets = new int[hashes.length];
+		for (int i = 0; i < hashes.length; i++) {
+			buckets[i] = postings.bucket(hashes[i]);
+		}
+		Arrays.sort(buckets);
+		int n = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			if (n == 0 || buckets[i] != buckets[n - 1])
+				buckets[n++] = buckets[i];
+		}
+		return Arrays.copyOf(buckets, n);
+	}
+
+	/**
+	 * Normalizes a name for comparison: lower case, without periods, with single spaces.
+	 *
+	 * @param s Name.
+	 * @return Normalized name.
+	 */
+	static String normalize(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		boolean space = false;
+		for (char c : s.toLowerCase().toCharArray()) {
+			if (c == '.')
+				continue;
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space)
+					sb.append(' ');
+				space = false;
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the words of a normalized name.
+	 *
+	 * @param s Normalized name.
+	 * @return Words of the name.
+	 */
+	private static List<String> wordsOf(String s) {
+		List<String> words = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= s.length(); i++) {
+			boolean letter = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				words.add(s.substring(start, i));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	private static int[] wordHashes(String s) {
+		List<String> words = wordsOf(s);
+		int[] hashes = new int[words.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = words.get(i).hashCode();
+		}
+		return hashes;
+	}
+
+	/**
+	 * Gets the hashes of the trigrams (three-character substrings) of a normalized string.
+	 *
+	 * @param s Normalized string.
+	 * @return Trigram hashes, one per position.
+	 */
+	private static int[] gramHashes(String s) {
+		int n = Math.max(s.length() - 2, 0);
+		int[] hashes = new int[n];
+		for (int i = 0; i < n; i++) {
+			hashes[i] = (s.charAt(i) * 31 + s.charAt(i + 1)) * 31 + s.charAt(i + 2);
+		}
+		return hashes;
+	}
+
+	/**
+	 * Runs a cheshire find command against the index.
+	 *
+	 * @param command Cheshire find command, as sent by GeoNamesHelper.
+	 * @return Geonames XML of each matching record, in order.  Empty if nothing matched or the command
+	 * could not be understood.
+	 */
+	public List<String> find(String command) {
+		List<String> results = new ArrayList<String>();
+		List<List<Atom>> clauses = parse(command);
+		if (clauses == null)
+			return results;
+
+		// The first name condition picks the candidates, which the others then filter or rank
+		Atom driver = null;
+		for (List<Atom> clause : clauses) {
+			if (clause.size() == 1 && isNameIndex(clause.get(0).index)) {
+				driver = clause.get(0);
+				break;
+			}
+		}
+		if (driver == null)
+			return results;
+
+		boolean ranked = driver.index.equals("name") || driver.index.startsWith("ngram");
+		int[] candidates;
+		if (driver.index.equals("exactname"))
+			candidates = lookup(exactNames, driver.term.hashCode());
+		else if (driver.index.equals("xintlname"))
+			candidates = lookup(intlNames, driver.term.hashCode());
+		else if (driver.index.equals("name"))
+			candidates = rank(words, wordHashes(driver.term), 1);
+		else
+			candidates = rank(grams, gramHashes(driver.term), 2);
+
+		List<String[]> rows = new ArrayList<String[]>();
+		final List<Integer> boosts = new ArrayList<Integer>();
+		for (int rec : candidates) {
+			String[] row = readRow(rec);
+			if (row == null)
+				continue;
+			boolean match = true;
+			int boost = 0;
+			for (List<Atom> clause : clauses) {
+				if (ranked && clause.size() == 1 && clause.get(0) == driver)
+					continue;
+				if (clause.size() == 1 && clause.get(0).ranked) {
+					if (matches(clause.get(0), row))
+						boost++;
+					continue;
+				}
+				boolean any = false;
+				for (Atom atom : clause) {
+					any = any || matches(atom, row);
+				}
+				match = match && any;
+			}
+			if (match) {
+				rows.add(row);
+				boosts.add(boost);
+			}
+		}
+
+		// Rank results matching more of the ranked conditions higher, keeping the order otherwise
+		Integer[] order = new Integer[rows.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return boosts.get(b) - boosts.get(a);
+			}
+		});
+		for (Integer i : order) {
+			results.add(toXML(rows.get(i)));
+		}
+		return results;
+	}
+
+	private static boolean isNameIndex(String index) {
+		return index.equals("exactname") || index.equals("xintlname") || index.equals("name") || index.startsWith("ngram");
+	}
+
+	/**
+	 * Parses a find command into clauses that must all match, each a list of conditions of which one must
+	 * match.
+	 *
+	 * @param command Cheshire find command.
+	 * @return The clauses, or null if the command is not a find command.
+	 */
+	private static List<List<Atom>> parse(String command) {
+		String s = command.trim();
+		if (!s.startsWith("find "))
+			return null;
+
+		List<List<Atom>> clauses = new ArrayList<List<Atom>>();
+		List<Atom> group = null;
+		Atom atom = null;
+		int i = 4;
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '(') {
+				group = new ArrayList<Atom>();
+				i++;
+			} else if (c == ')') {
+				if (group != null)
+					clauses.add(group);
+				group = null;
+				i++;
+			} else if (c == '@') {
+				if (atom != null)
+					atom.ranked = !atom.exact;
+				i++;
+			} else if (c == '\'') {
+				int end = s.indexOf('\'', i + 1);
+				if (end < 0)
+					end = s.length();
+				if (atom != null) {
+					atom.term = normalize(StringEscapeUtils.unescapeXml(s.substring(i + 1, end)));
+					if (group != null)
+						group.add(atom);
+					else
+						clauses.add(Collections.singletonList(atom));
+					atom = null;
+				}
+				i = end + 1;
+			} else {
+				int end = i;
+				while (end < s.length() && !Character.isWhitespace(s.charAt(end)) && "()@'".indexOf(s.charAt(end)) < 0) {
+					end++;
+				}
+				String word = s.substring(i, end).toLowerCase();
+				if (!word.equals("and") && !word.equals("or")) {
+					atom = new Atom();
+					atom.exact = word.contains("[5=100]");
+					atom.index = word.indexOf('[') >= 0 ? word.substring(0, word.indexOf('[')) : word;
+				}
+				i = end;
+			}
+		}
+		return clauses;
+	}
+
+	/**
+	 * Whether a record meets a condition.
+	 *
+	 * @param atom Condition.
+	 * @param row Columns of the record.
+	 * @return True if the record meets the condition, false otherwise.
+	 */
+	private static boolean matches(Atom atom, String[] row) {
+		String index = atom.index;
+		if (index.equals("exactname"))
+			return normalize(row[NAME]).equals(atom.term);
+		if (index.equals("xintlname")) {
+			if (normalize(row[NAME]).equals(atom.term) || normalize(row[ASCII_NAME]).equals(atom.term))
+				return true;
+			for (String alt : row[ALT_NAMES].split(",")) {
+				if (normalize(alt).equals(atom.term))
+					return true;
+			}
+			return false;
+		}
+		if (index.equals("name"))
+			return wordsOf(normalize(row[NAME])).containsAll(wordsOf(atom.term));
+		if (index.equals("admin1"))
+			return normalize(row[ADMIN1]).equals(atom.term);
+		if (index.equals("xcountry"))
+			return normalize(row[COUNTRY]).equals(atom.term);
+		if (index.equals("feature_type"))
+			return normalize(row[FEATURE_CODE]).equals(atom.term);
+		// n-gram conditions only rank
+		return index.startsWith("ngram");
+	}
+
+	/**
+	 * Gets the records in the bucket of a key, in file order.
+	 *
+	 * @param postings Postings to look in.
+	 * @param hash Hash of the key.
+	 * @return Record numbers.
+	 */
+	private static int[] lookup(Postings postings, int hash) {
+		int bucket = postings.bucket(hash);
+		return Arrays.copyOfRange(postings.recs, postings.start[bucket], postings.start[bucket + 1]);
+	}
+
+	/**
+	 * Ranks the records by the number of the keys they share, by merging the keys' runs of record numbers.
+	 * Only the best <code>maxResults</code> records are kept while merging.
+	 *
+	 * @param postings Postings to look in.
+	 * @param hashes Hashes of the keys.
+	 * @param minimum Fewest shared keys for a record to be ranked.
+	 * @return Record numbers of the best <code>maxResults</code> records, most shared keys first, then in file order.
+	 */
+	private int[] rank(final Postings postings, int[] hashes, int minimum) {
+		// One cursor (position, end) per bucket, ordered by the record number at the cursor
+		PriorityQueue<int[]> cursors = new PriorityQueue<int[]>(Math.max(hashes.length, 1), new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return postings.recs[a[0]] - postings.recs[b[0]];
+			}
+		});
+		// Leave out keys posted for too many records, unless every key is that common
+		int[] buckets = bucketsOf(postings, hashes);
+		boolean capped = false;
+		if (maxPostings > 0) {
+			for (int bucket : buckets) {
+				int length = postings.start[bucket + 1] - postings.start[bucket];
+				if (length > 0 && length <= maxPostings)
+					capped = true;
+			}
+		}
+		for (int bucket : buckets) {
+			int length = postings.start[bucket + 1] - postings.start[bucket];
+			if (length > 0 && !(capped && length > maxPostings))
+				cursors.add(new int[] { postings.start[bucket], postings.start[bucket + 1] });
+		}
+
+		// Shared key count (high bits, inverted to sort first) and record number (low bits) of the best
+		// maxResults records so far, worst at the head.  Records come in file order, so a later record
+		// only replaces the worst if it shares more keys.
+		PriorityQueue<Long> best = new PriorityQueue<Long>(Math.min(Math.max(maxResults, 1), 1024), Collections.reverseOrder());
+		while (!cursors.isEmpty()) {
+			int rec = postings.recs[cursors.peek()[0]];
+			int count = 0;
+			while (!cursors.isEmpty() && postings.recs[cursors.peek()[0]] == rec) {
+				int[] cursor = cursors.poll();
+				count++;
+				if (++cursor[0] < cursor[1])
+					cursors.add(cursor);
+			}
+			if (count >= minimum) {
+				long key = ((long) (Integer.MAX_VALUE - count) << 32) | rec;
+				if (best.size() < maxResults) {
+					best.add(key);
+				} else if (!best.isEmpty() && key < best.peek()) {
+					best.poll();
+					best.add(key);
+				}
+			}
+		}
+
+		int[] recs = new int[best.size()];
+		for (int i = recs.length - 1; i >= 0; i--) {
+			recs[i] = (int) best.poll().longValue();
+		}
+		return recs;
+	}
+
+	/**
+	 * Reads a record's line back from the dump.
+	 *
+	 * @param rec Record number.
+	 * @return Columns of the record, or null if it could not be read.
+	 */
+	private String[] readRow(int rec) {
+		long offset = records[rec] >>> 24;
+		byte[] line = new byte[(int) (records[rec] & 0xffffff)];
+		try {
+			synchronized (data) {
+				data.seek(offset);
+				data.readFully(line);
+			}
+			return new String(line, "UTF-8").split("\t", -1);
+		} catch (IOException e) {
+			System.err.println("Could not read the GeoNames index " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a record as Geonames XML, in the form cheshire displays it.
+	 *
+	 * @param row Columns of the record.
+	 * @return Geonames XML string.
+	 */
+	private static String toXML(String[] row) {
+		StringBuilder xml = new StringBuilder("<geoname>");
+		element(xml, "geonameid", row[ID]);
+		element(xml, "name", row[NAME]);
+		element(xml, "asciiname", row[ASCII_NAME]);
+		xml.append("<alternatenames>");
+		if (row[ALT_NAMES].length() > 0) {
+			for (String alt : row[ALT_NAMES].split(",")) {
+				element(xml, "alt", alt);
+			}
+		}
+		xml.append("</alternatenames>");
+		element(xml, "latitude", row[LATITUDE]);
+		element(xml, "longitude", row[LONGITUDE]);
+		element(xml, "feature_class", row[FEATURE_CLASS]);
+		element(xml, "feature_code", row[FEATURE_CODE]);
+		element(xml, "country_code", row[COUNTRY]);
+		element(xml, "admin1", row[ADMIN1]);
+		element(xml, "admin2", row[ADMIN2]);
+		element(xml, "population", row[POPULATION]);
+		return xml.append("</geoname>").toString();
+	}
+
+	private static void element(StringBuilder xml, String name, String value) {
+		xml.append('<').append(name).append('>').append(StringEscapeUtils.escapeXml(value)).append("</").append(name).append('>');
+	}
+
+	/**
+	 * Main method used for testing purposes: loads a dump and runs find commands against it, printing the
+	 * number of results, the time taken and the top result of each.
+	 *
+	 * @param args the dump file, then find commands
+	 * @throws IOException if the dump could not be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java edu.virginia.iath.snac.helpers.GeoNamesIndex dump-file [find-command ...]");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		GeoNamesIndex index = new GeoNamesIndex(new File(args[0]), Integer.getInteger("snac.geonames.indexMaxResults", 500),
+				Integer.getInteger("snac.geonames.indexMaxPostings", 0));
+		index.load();
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		System.out.println("Loaded " + index.size + " places in " + (System.currentTimeMillis() - start) + "ms, "
+				+ ((rt.totalMemory() - rt.freeMemory()) >> 20) + "MB used");
+
+		for (int i = 1; i < args.length; i++) {
+			long t = System.nanoTime();
+			List<String> results = index.find(args[i]);
+			System.out.println(args[i] + "\t" + results.size() + " results in " + (System.nanoTime() - t) / 1000 + "us"
+					+ (results.isEmpty() ? "" : "\t" + results.get(0)));
+		}
+	}
+}
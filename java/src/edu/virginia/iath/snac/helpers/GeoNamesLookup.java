@@ -0,0 +1,149 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
+
+/**
+ * Thread-safe GeoNames lookups through cheshire, shared by all extension function calls and threads.
+ * <p>
+ * A GeoNamesHelper holds the state of a single query and is not safe to share, so each lookup runs the
+ * cheshire query process on its own helper, over a connection borrowed from the CheshireConnectionPool,
+ * and hands back only the immutable GeoNamesResult.  Results are kept in the GeoNamesCache and the
+ * GeoNamesDiskCache.  If several threads look up the same string at once, only one of them queries
+ * cheshire and the others wait for its result.
+ *
+ * @author Robbie Hott
+ */
+public class GeoNamesLookup {
+	private static GeoNamesLookup instance = null;
+
+	// Number of results other than the top result returned for each lookup
+	private static final int MAX_RESULTS = 20;
+
+	private final GeoNamesCache cache;
+	private final GeoNamesDiskCache diskCache;
+	// Lookups currently querying cheshire, by query string
+	private final ConcurrentHashMap<String, FutureTask<GeoNamesResult>> running;
+
+	/**
+	 * Constructor: Creates a lookup service that uses the given caches.
+	 *
+	 * @param cache In-memory cache of results.
+	 * @param diskCache Cache file of results from earlier runs.
+	 */
+	public GeoNamesLookup(GeoNamesCache cache, GeoNamesDiskCache diskCache) {
+		this.cache = cache;
+		this.diskCache = diskCache;
+		running = new ConcurrentHashMap<String, FutureTask<GeoNamesResult>>();
+	}
+
+	/**
+	 * Gets the shared lookup service, which uses the shared caches.
+	 *
+	 * @return The shared lookup service.
+	 */
+	public static synchronized GeoNamesLookup getInstance() {
+		if (instance == null) {
+			instance = new GeoNamesLookup(GeoNamesCache.getInstance(), GeoNamesDiskCache.getInstance());
+		}
+		return instance;
+	}
+
+	/**
+	 * Looks up a cleaned place string, answering repeated strings from the cache or from the cache file of
+	 * earlier runs, and otherwise running the full cheshire query process.
+	 *
+	 * @param query Place string, already cleaned by <code>GeoNamesHelper.cleanString</code>.
+	 * @return The result of the lookup, empty if nothing was found or cheshire wasn't available.  If the cheshire
+	 * connection broke during the lookup, the results found before it broke, which are not cached.
+	 */
+	public GeoNamesResult lookup(final String query) {
+		GeoNamesResult result = cache.get(query);
+		if (result != null)
+			return result;
+
+		// Join a lookup of the same string that is already running, or start one
+		FutureTask<GeoNamesResult> task = new FutureTask<GeoNamesResult>(new Callable<GeoNamesResult>() {
+			@Override
+			public GeoNamesResult call() {
+				return lookupUncached(query);
+			}
+		});
+		FutureTask<GeoNamesResult> existing = running.putIfAbsent(query, task);
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				running.remove(query, task);
+			}
+		} else {
+			task = existing;
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("GeoNames lookup of \"" + query + "\" failed: " + e.getCause());
+		}
+		return GeoNamesResult.EMPTY;
+	}
+
+	/**
+	 * Looks up a place string that is not in the in-memory cache, first in the cache file, then in cheshire.
+	 *
+	 * @param query Cleaned place string.
+	 * @return The result of the lookup.
+	 */
+	private GeoNamesResult lookupUncached(String query) {
+		// Results from a local dump may differ from cheshire's, and results of a search that may stop early
+		// from those of a full search, so they are cached separately
+		GeoNamesHelper helper = new GeoNamesHelper();
+		String source = GeoNamesIndex.getInstance() != null ? "index" : "cheshire";
+		if (helper.getStopConfidence() > 0)
+			source += "@" + helper.getStopConfidence();
+		GeoNamesResult result = diskCache.get(source, query);
+		if (result != null) {
+			cache.put(query, result);
+			return result;
+		}
+
+		if (!helper.connect()) {
+			// Don't cache the lookup if cheshire wasn't available
+			return GeoNamesResult.EMPTY;
+		}
+		try {
+			helper.queryCheshire(query);
+			result = helper.getResult(MAX_RESULTS);
+		} finally {
+			helper.disconnect();
+		}
+		if (helper.isBroken()) {
+			// The connection broke partway through, so the result may be incomplete: don't cache it
+			return result;
+		}
+		cache.put(query, result);
+		diskCache.put(source, query, result);
+		return result;
+	}
+}
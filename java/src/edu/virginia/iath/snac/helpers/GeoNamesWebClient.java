@@ -0,0 +1,426 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import edu.virginia.iath.snac.helpers.datastructures.GeoNamesResult;
+
+/**
+ * Shared client for the GeoNames web search service, used by all web lookups and threads.
+ * <p>
+ * Only the first place of each response is parsed, straight from the stream.  Responses are then read to
+ * the end and closed, so Java's HTTP keep-alive cache reuses the connections to the service.  At most <code>snac.geonames.webConcurrency</code> requests are sent at once, and if several
+ * threads look up the same place at once, only one request is sent and the others wait for its result.
+ * Results are kept in the GeoNamesDiskCache.
+ * <p>
+ * Requests are scheduled through a TokenBucket, which queues bursts and lets them through at a steady
+ * <code>snac.geonames.webRate</code>.  When the service answers that it is overloaded or that a credit
+ * limit was reached (HTTP 429 or 503, or GeoNames status 18, 19, 20 or 22), all requests are paused and
+ * the request is retried with exponential backoff.  A lookup that still fails, or that gets any other
+ * status message, throws instead of returning (and caching) an empty result.
+ * <p>
+ * The shared client is configured with the following system properties:
+ * <ul>
+ * <li> <code>snac.geonames.webUrl</code>: URL of the search service (default http://api.geonames.org/search)
+ * <li> <code>snac.geonames.webUser</code>: GeoNames user name (default rwb3y)
+ * <li> <code>snac.geonames.webConcurrency</code>: Maximum number of requests sent at once (default 2)
+ * <li> <code>snac.geonames.webTimeout</code>: Milliseconds to wait to connect or read (default 30000)
+ * <li> <code>snac.geonames.webRate</code>: Requests per second let through in the long run (default 0, no limit)
+ * <li> <code>snac.geonames.webBurst</code>: Requests let through at once after a quiet spell (default 1)
+ * <li> <code>snac.geonames.webRetries</code>: Times a throttled request is retried (default 5)
+ * <li> <code>snac.geonames.webBackoff</code>: Milliseconds to wait before the first retry, doubled for each
+ * further retry up to an hour (default 1000)
+ * </ul>
+ *
+ * @author Robbie Hott
+ */
+public class GeoNamesWebClient {
+	// Longest wait before a retry, in milliseconds
+	private static final long MAX_BACKOFF = 3600000L;
+	private static GeoNamesWebClient instance = null;
+
+	private final String serviceUrl;
+	private final String user;
+	private final int timeout;
+	private final int retries;
+	private final long backoff;
+	private final GeoNamesDiskCache diskCache;
+	private final TokenBucket bucket;
+	// One permit per request that may be sent at once
+	private final Semaphore permits;
+	// Lookups currently waiting on the service, by place
+	private final ConcurrentHashMap<String, FutureTask<GeoNamesResult>> running;
+
+	/**
+	 * Constructor: Creates a client of the given search service.
+	 *
+	 * @param serviceUrl URL of the search service.
+	 * @param user GeoNames user name.
+	 * @param concurrency Maximum number of requests sent at once.
+	 * @param timeout Milliseconds to wait to connect or read.
+	 * @param bucket Rate limiter the requests are scheduled through.
+	 * @param retries Times a throttled request is retried.
+	 * @param backoff Milliseconds to wait before the first retry.
+	 * @param diskCache Cache file of results from earlier runs.
+	 */
+	public GeoNamesWebClient(String serviceUrl, String user, int concurrency, int timeout, TokenBucket bucket,
+			int retries, long backoff, GeoNamesDiskCache diskCache) {
+		this.serviceUrl = serviceUrl;
+		this.user = user;
+		this.timeout = timeout;
+		this.bucket = bucket;
+		this.retries = retries;
+		this.backoff = backoff;
+		this.diskCache = diskCache;
+		permits = new Semaphore(concurrency, true);
+		running = new ConcurrentHashMap<String, FutureTask<GeoNamesResult>>();
+	}
+
+	/**
+	 * Gets the shared client, creating it from the system properties on first use.
+	 *
+	 * @return The shared web client.
+	 */
+	public static synchronized GeoNamesWebClient getInstance() {
+		if (instance == null) {
+			instance = new GeoNamesWebClient(
+					System.getProperty("snac.geonames.webUrl", "http://api.geonames.org/search"),
+					System.getProperty("snac.geonames.webUser", "rwb3y"),
+					Integer.getInteger("snac.geonames.webConcurrency", 2),
+					Integer.getInteger("snac.geonames.webTimeout", 30000),
+					new TokenBucket(Double.parseDouble(System.getProperty("snac.geonames.webRate", "0")),
+							Integer.getInteger("snac.geonames.webBurst", 1)),
+					Integer.getInteger("snac.geonames.webRetries", 5),
+					Long.getLong("snac.geonames.webBackoff", 1000),
+					GeoNamesDiskCache.getInstance());
+		}
+		return instance;
+	}
+
+	/**
+	 * Looks up the top result for a place, from the cache file of earlier runs or from the web service.
+	 *
+	 * @param place Place string, as given to Saxon.
+	 * @return Result with the values of the top place, or the empty result if nothing was found.
+	 * @throws Exception if the web service could not be read or its response was not as expected
+	 */
+	public GeoNamesResult lookup(String place) throws Exception {
+		// Cache entries are keyed by the escaped string
+		final String query = StringEscapeUtils.escapeXml(place);
+		final String search = place;
+
+		// Join a lookup of the same place that is already running, or start one
+		FutureTask<GeoNamesResult> task = new FutureTask<GeoNamesResult>(new Callable<GeoNamesResult>() {
+			@Override
+			public GeoNamesResult call() throws Exception {
+				GeoNamesResult result = diskCache.get("weblookup", query);
+				if (result == null) {
+					result = request(search);
+					diskCache.put("weblookup", query, result);
+				}
+				return result;
+			}
+		});
+		FutureTask<GeoNamesResult> existing = running.putIfAbsent(query, task);
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				running.remove(query, task);
+			}
+		} else {
+			task = existing;
+		}
+
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends a search to the web service when the rate limiter and a free request slot allow, retrying it
+	 * while the service is throttling.
+	 *
+	 * @param place Place string.
+	 * @return Result with the values of the top place, or the empty result if nothing was found.
+	 * @throws Exception if the web service could not be read or its response was not as expected
+	 */
+	private GeoNamesResult request(String place) throws Exception {
+		URL url = new URL(serviceUrl + "?q=" + URLEncoder.encode(place, "UTF-8") + "&maxRows=1&username="
+				+ URLEncoder.encode(user, "UTF-8") + "&type=json");
+
+		for (int attempt = 0; ; attempt++) {
+			bucket.acquire();
+			int status;
+			String retryAfter;
+			JSONObject obj = null;
+			permits.acquire();
+			try {
+				HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+				connection.setConnectTimeout(timeout);
+				connection.setReadTimeout(timeout);
+				status = connection.getResponseCode();
+				retryAfter = connection.getHeaderField("Retry-After");
+				if (status == HttpURLConnection.HTTP_OK) {
+					InputStream stream = connection.getInputStream();
+					try {
+						obj = readResponse(new JSONTokener(new InputStreamReader(stream, "UTF-8")));
+					} finally {
+						drain(stream);
+					}
+				} else {
+					drain(connection.getErrorStream());
+				}
+			} finally {
+				permits.release();
+			}
+
+			boolean throttled = (status == 429 || status == 503);
+			if (!throttled) {
+				if (status != HttpURLConnection.HTTP_OK)
+					throw new IOException("GeoNames web service answered HTTP " + status);
+				if (obj.has("status")) {
+					JSONObject message = obj.getJSONObject("status");
+					int value = message.optInt("value");
+					throttled = (value == 18 || value == 19 || value == 20 || value == 22);
+					if (!throttled)
+						throw new IOException("GeoNames web service answered: " + message.optString("message"));
+				}
+			}
+			if (!throttled)
+				return parse(obj);
+
+			if (attempt >= retries)
+				throw new IOException("GeoNames web service still throttling after " + retries + " retries");
+			// Stop doubling once the delay reaches the hour cap, so a large retry count can't overflow the shift
+			long delay = backoff;
+			for (int i = 0; i < attempt && delay < MAX_BACKOFF; i++) {
+				delay <<= 1;
+			}
+			delay = Math.min(delay, MAX_BACKOFF);
+			if (retryAfter != null && retryAfter.trim().matches("\\d+"))
+				delay = Math.max(delay, Long.parseLong(retryAfter.trim()) * 1000);
+			System.err.println("GeoNames web service is throttling, retrying in " + delay + "ms");
+			bucket.pause(delay);
+		}
+	}
+
+	/**
+	 * Reads the rest of a response body and closes it, which leaves the connection free for reuse.
+	 *
+	 * @param stream Response body, may be null.
+	 * @throws IOException if the response could not be read
+	 */
+	private static void drain(InputStream stream) throws IOException {
+		if (stream == null)
+			return;
+		try {
+			byte[] buf = new byte[4096];
+			while (stream.read(buf) >= 0) {}
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Pulls the parts of a search response that are used out of the stream, without building the rest.
+	 * The returned object holds the response's <code>status</code>, if any, and its <code>geonames</code>
+	 * array cut down to the first place, with only the fields <code>parse</code> reads.  Reading stops at
+	 * the end of that first place, so the other places of a long response are never parsed.
+	 *
+	 * @param x Tokener on the response body.
+	 * @return The used parts of the response.
+	 * @throws JSONException if the response is not valid JSON
+	 */
+	private static JSONObject readResponse(JSONTokener x) throws JSONException {
+		JSONObject obj = new JSONObject();
+		if (x.nextClean() != '{')
+			throw x.syntaxError("A JSONObject text must begin with '{'");
+		while (nextKey(x)) {
+			String key = x.nextValue().toString();
+			if (x.nextClean() != ':')
+				throw x.syntaxError("Expected a ':' after a key");
+			if (key.equals("status")) {
+				obj.put(key, x.nextValue());
+			} else if (key.equals("geonames")) {
+				if (x.nextClean() != '[') {
+					x.back();
+					obj.put(key, x.nextValue());
+				} else {
+					JSONArray places = new JSONArray();
+					if (x.nextClean() != ']') {
+						x.back();
+						places.put(readPlace(x));
+					}
+					obj.put(key, places);
+					// Nothing after the first place is used
+					return obj;
+				}
+			} else {
+				skipValue(x);
+			}
+		}
+		return obj;
+	}
+
+	/**
+	 * Reads the fields of a place object that <code>parse</code> uses, skipping the others.
+	 *
+	 * @param x Tokener positioned before the place's opening brace.
+	 * @return The used fields of the place.
+	 * @throws JSONException if the place is not valid JSON
+	 */
+	private static JSONObject readPlace(JSONTokener x) throws JSONException {
+		JSONObject place = new JSONObject();
+		if (x.nextClean() != '{')
+			throw x.syntaxError("A JSONObject text must begin with '{'");
+		while (nextKey(x)) {
+			String key = x.nextValue().toString();
+			if (x.nextClean() != ':')
+				throw x.syntaxError("Expected a ':' after a key");
+			if (key.equals("geonameId") || key.equals("name") || key.equals("adminCode1")
+					|| key.equals("countryName") || key.equals("lat") || key.equals("lng"))
+				place.put(key, x.nextValue());
+			else
+				skipValue(x);
+		}
+		return place;
+	}
+
+	/**
+	 * Moves to the next key of an object, past the separator after the previous value.
+	 *
+	 * @param x Tokener inside an object, after its opening brace or after a value.
+	 * @return True if there is another key, false if the object has ended.
+	 * @throws JSONException if the object is not valid JSON
+	 */
+	private static boolean nextKey(JSONTokener x) throws JSONException {
+		char c = x.nextClean();
+		if (c == ',' || c == ';')
+			c = x.nextClean();
+		if (c == '}')
+			return false;
+		if (c == 0)
+			throw x.syntaxError("A JSONObject text must end with '}'");
+		x.back();
+		return true;
+	}
+
+	/**
+	 * Skips over a value without building it.
+	 *
+	 * @param x Tokener positioned before the value.
+	 * @throws JSONException if the value is not valid JSON
+	 */
+	private static void skipValue(JSONTokener x) throws JSONException {
+		int depth = 0;
+		do {
+			char c = depth == 0 ? x.nextClean() : x.next();
+			switch (c) {
+			case 0:
+				throw x.syntaxError("Unterminated value");
+			case '"':
+			case '\'':
+				skipString(x, c);
+				break;
+			case '{':
+			case '[':
+				depth++;
+				break;
+			case '}':
+			case ']':
+				depth--;
+				break;
+			default:
+				if (depth == 0) {
+					// Unquoted number, true, false or null: up to the next separator
+					while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+						c = x.next();
+					}
+					x.back();
+				}
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Skips over the rest of a quoted string.
+	 *
+	 * @param x Tokener positioned after the opening quote.
+	 * @param quote The quoting character.
+	 * @throws JSONException if the string is unterminated
+	 */
+	private static void skipString(JSONTokener x, char quote) throws JSONException {
+		while (true) {
+			char c = x.next();
+			if (c == 0 || c == '\n' || c == '\r')
+				throw x.syntaxError("Unterminated string");
+			if (c == '\\')
+				x.next();
+			else if (c == quote)
+				return;
+		}
+	}
+
+	/**
+	 * Reads the top place out of a search response.
+	 *
+	 * @param obj Search response.
+	 * @return Result with the values of the top place, or the empty result if nothing was found.
+	 */
+	private static GeoNamesResult parse(JSONObject obj) {
+		// An empty list ("geonames":[]) is a miss, the same as no list
+		JSONArray res = obj.optJSONArray("geonames");
+		if (res != null && res.length() > 0) {
+			// read the first item
+			JSONObject cur = res.getJSONObject(0); // read in the first one
+
+			Map<String, String> values = new LinkedHashMap<String, String>();
+			values.put("geonamesid", Integer.toString(cur.getInt("geonameId")));
+			values.put("name", cur.getString("name"));
+			values.put("admincode1", cur.getString("adminCode1"));
+			values.put("country", cur.getString("countryName"));
+			values.put("lat", Double.toString(cur.getDouble("lat")));
+			values.put("lon", Double.toString(cur.getDouble("lng")));
+			return new GeoNamesResult(1.0, values, new ArrayList<Map<String, String>>());
+		}
+		return GeoNamesResult.EMPTY;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Report of how much each tier of GeoNamesHelper's search contributes to the final answer, shared by all
+ * helpers when the <code>snac.geonames.tierReport</code> system property is true.
+ * <p>
+ * For each lookup, the helper runs every tier and notes the top result, its confidence and the number of
+ * queries sent so far after each one.  The report counts how often each tier changed the answer and how often
+ * the answer was already final after it.  If an early-exit confidence is set, it also counts how often the
+ * search would have stopped early, how many queries that would save, and how often the answer would then have
+ * differed from the final one.
+ *
+ * @author Robbie Hott
+ */
+public class SearchTierReport {
+	private static SearchTierReport instance = null;
+
+	private long lookups = 0;
+	private long queries = 0;
+	// Per tier: answers changed in the top result, answers changed in confidence only, answers final after the tier
+	private final Map<String, long[]> tiers = new LinkedHashMap<String, long[]>();
+	private double stopConfidence = 0;
+	private long stopped = 0;
+	private long queriesSaved = 0;
+	private long differentTop = 0;
+	private long differentConfidence = 0;
+
+	/**
+	 * Gets the shared report.
+	 *
+	 * @return The shared report.
+	 */
+	public static synchronized SearchTierReport getInstance() {
+		if (instance == null) {
+			instance = new SearchTierReport();
+		}
+		return instance;
+	}
+
+	/**
+	 * Records the answer after each tier of one lookup.  The last tier's answer is the final answer.
+	 *
+	 * @param names Names of the tiers, in the order they ran.
+	 * @param tops Geonames id of the top result after each tier, or null if there was none.
+	 * @param confidences Confidence of the top result after each tier.
+	 * @param sent Number of queries sent after each tier.
+	 * @param stopConfidence Early-exit confidence, or 0 for none.
+	 * @param stopTier Tier after which the search would have stopped early, or -1 if it would not have.
+	 */
+	public synchronized void record(String[] names, String[] tops, double[] confidences, int[] sent,
+			double stopConfidence, int stopTier) {
+		int last = names.length - 1;
+		lookups++;
+		queries += sent[last];
+		for (int i = 0; i < names.length; i++) {
+			long[] counts = tiers.get(names[i]);
+			if (counts == null) {
+				counts = new long[3];
+				tiers.put(names[i], counts);
+			}
+			String before = i > 0 ? tops[i - 1] : null;
+			double confidenceBefore = i > 0 ? confidences[i - 1] : 0;
+			if (!same(tops[i], before))
+				counts[0]++;
+			else if (confidences[i] != confidenceBefore)
+				counts[1]++;
+			if (same(tops[i], tops[last]) && confidences[i] == confidences[last])
+				counts[2]++;
+		}
+
+		this.stopConfidence = stopConfidence;
+		if (stopTier >= 0) {
+			stopped++;
+			queriesSaved += sent[last] - sent[stopTier];
+			if (!same(tops[stopTier], tops[last]))
+				differentTop++;
+			else if (confidences[stopTier] != confidences[last])
+				differentConfidence++;
+		}
+	}
+
+	private static boolean same(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Prints the counts for each tier and, if an early-exit confidence is set, what stopping early would change.
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("Search tiers: " + lookups + " lookups, " + queries + " queries");
+		for (Map.Entry<String, long[]> tier : tiers.entrySet()) {
+			long[] counts = tier.getValue();
+			sb.append("\n  ").append(tier.getKey()).append(": changed the answer in ").append(counts[0] + counts[1])
+					.append(" (").append(counts[0]).append(" top result, ").append(counts[1]).append(" confidence only)")
+					.append(", answer final after it in ").append(counts[2]);
+		}
+		if (stopConfidence > 0) {
+			sb.append("\n  Stopping at confidence ").append(stopConfidence).append(": would stop ").append(stopped)
+					.append(" lookups early, saving ").append(queriesSaved).append(" of ").append(queries)
+					.append(" queries; different top result in ").append(differentTop)
+					.append(", different confidence only in ").append(differentConfidence);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ *        Copyright 2013 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket rate limiter.  Tokens are added at a steady rate up to the size of the bucket, and each
+ * request takes one, waiting for it if the bucket is empty.  Waiting threads are served in the order they
+ * arrived, so a burst of requests is smoothed out to the steady rate instead of being refused.
+ * <p>
+ * The bucket can also be paused, for example when the service being limited says it is overloaded, after
+ * which no tokens are handed out until the pause is over.
+ *
+ * @author Robbie Hott
+ */
+public class TokenBucket {
+
+	private final double rate;
+	private final double capacity;
+	// Fair, so waiting threads take tokens in order
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private double tokens;
+	private long lastRefill;
+	private long pausedUntil;
+
+	/**
+	 * Constructor: Creates a full bucket.
+	 *
+	 * @param rate Tokens added per second, or 0 for no limit.
+	 * @param capacity Most tokens the bucket holds, the largest burst let through at once.
+	 */
+	public TokenBucket(double rate, int capacity) {
+		this.rate = rate;
+		this.capacity = Math.max(capacity, 1);
+		tokens = this.capacity;
+		lastRefill = System.nanoTime();
+		pausedUntil = lastRefill;
+	}
+
+	/**
+	 * Takes a token, waiting until one is available and any pause is over.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				long wait;
+				synchronized (this) {
+					long now = System.nanoTime();
+					wait = pausedUntil - now;
+					if (wait <= 0) {
+						if (rate <= 0)
+							return;
+						refill(now);
+						if (tokens >= 1) {
+							tokens -= 1;
+							return;
+						}
+						wait = (long) ((1 - tokens) / rate * 1e9);
+					}
+				}
+				// Hold the lock while sleeping, so that the next token goes to this thread
+				TimeUnit.NANOSECONDS.sleep(Math.max(wait, 1000));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands out no tokens for the given time, and empties the bucket so requests resume at the steady rate.
+	 *
+	 * @param millis Milliseconds to pause.
+	 */
+	public void pause(long millis) {
+		// Only the monitor, not the lock, which a waiting thread may be holding
+		synchronized (this) {
+			long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+			if (until - pausedUntil > 0) {
+				pausedUntil = until;
+				tokens = 0;
+				lastRefill = until;
+			}
+		}
+	}
+
+	/**
+	 * Adds the tokens earned since the last refill.  Called holding the bucket's monitor.
+	 *
+	 * @param now Current time in nanoseconds.
+	 */
+	private void refill(long now) {
+		if (now - lastRefill > 0) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1e9);
+			lastRefill = now;
+		}
+	}
+}
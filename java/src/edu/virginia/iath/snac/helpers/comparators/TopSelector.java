@@ -0,0 +1,142 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2014 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers.comparators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import edu.virginia.iath.snac.helpers.datastructures.GeolocationString;
+
+/**
+ * Top Selector
+ *
+ * Picks the first few items of a list in the order of a comparator without sorting the whole list.  The
+ * items picked, and their order, are the same as the start of the list after <code>Collections.sort</code>,
+ * which keeps equal items in their original order.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class TopSelector {
+
+	/**
+	 * Orders the first <code>k</code> items of a list.  The <code>k</code> items that would come first after
+	 * sorting the list come first, in sorted order, followed by all other items in their original order.
+	 *
+	 * @param items Items to order.
+	 * @param comparator Order of the items.
+	 * @param k Number of items to put in order.
+	 * @return New list of the same items, with the first <code>k</code> in sorted order.
+	 */
+	public static <T> List<T> selectTop(List<T> items, final Comparator<? super T> comparator, int k) {
+		final List<T> all = new ArrayList<T>(items);
+		if (all.size() <= k) {
+			Collections.sort(all, comparator);
+			return all;
+		}
+		if (k <= 0)
+			return all;
+
+		// Positions of the best k items so far, worst at the head.  Equal items are told apart by position,
+		// as a stable sort would.
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(k, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = comparator.compare(all.get(b), all.get(a));
+				return c != 0 ? c : b - a;
+			}
+		});
+		for (int i = 0; i < all.size(); i++) {
+			if (best.size() < k) {
+				best.add(i);
+			} else if (best.comparator().compare(i, best.peek()) > 0) {
+				best.poll();
+				best.add(i);
+			}
+		}
+
+		// Take the best items out worst first, then add everything else in order
+		boolean[] picked = new boolean[all.size()];
+		List<T> ret = new ArrayList<T>(all.size());
+		for (int i = 0; i < k; i++) {
+			ret.add(null);
+		}
+		for (int i = k - 1; i >= 0; i--) {
+			int pos = best.poll();
+			picked[pos] = true;
+			ret.set(i, all.get(pos));
+		}
+		for (int i = 0; i < all.size(); i++) {
+			if (!picked[i])
+				ret.add(all.get(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Main method used for testing purposes: times ordering random n-gram candidates with a full sort and with
+	 * <code>selectTop</code>, and checks that both put the same candidates first.
+	 *
+	 * @param args optionally, the number of candidates (default 10000) and the number to order (default 50)
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		Random random = new Random(1);
+		GeolocationString master = new GeolocationString("charlottesville", 3);
+		List<GeolocationString> candidates = new ArrayList<GeolocationString>();
+		String letters = "abcdefghilorstuv ";
+		for (int i = 0; i < n; i++) {
+			StringBuilder name = new StringBuilder("char");
+			for (int j = random.nextInt(12); j > 0; j--) {
+				name.append(letters.charAt(random.nextInt(letters.length())));
+			}
+			GeolocationString candidate = new GeolocationString(name.append("ville").toString(), 3);
+			candidate.setNGramMaster(master);
+			candidate.setPopulation(Integer.toString(random.nextInt(1000)));
+			candidate.setNumAltNames(random.nextInt(4));
+			candidates.add(candidate);
+		}
+
+		Comparator<GeolocationString> comparator = new DifferenceNGramsComparator();
+		long sorted = 0, selected = 0;
+		boolean same = true;
+		for (int run = 0; run < 20; run++) {
+			long start = System.nanoTime();
+			List<GeolocationString> all = new ArrayList<GeolocationString>(candidates);
+			Collections.sort(all, comparator);
+			long mid = System.nanoTime();
+			List<GeolocationString> top = selectTop(candidates, comparator, k);
+			long end = System.nanoTime();
+			// Skip the warm-up runs
+			if (run >= 10) {
+				sorted += mid - start;
+				selected += end - mid;
+			}
+			same = same && all.subList(0, Math.min(k, n)).equals(top.subList(0, Math.min(k, n)));
+		}
+
+		System.out.println("Full sort:  " + (sorted / 10000) + " us per " + n + " candidates");
+		System.out.println("Select top: " + (selected / 10000) + " us per " + n + " candidates (top " + k + ")");
+		System.out.println("Same first " + k + ": " + same);
+	}
+}
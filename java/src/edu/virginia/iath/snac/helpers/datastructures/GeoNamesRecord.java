@@ -0,0 +1,257 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2014 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers.datastructures;
+
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * GeoNames Record
+ *
+ * One Geonames XML result row from Cheshire, parsed once into the fields used by the helper.  The row is read
+ * with a streaming parser when it arrives, keeping the first value of each field and the number of alternate
+ * names.  The original XML is kept, and two records are equal if their XML is equal.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class GeoNamesRecord {
+
+	private static final XMLInputFactory factory;
+	static {
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	}
+
+	private final String xml;
+	private boolean parsed = false;
+	private String geonameId;
+	private String name;
+	private String admin1;
+	private String countryCode;
+	private String latitude;
+	private String longitude;
+	private String population;
+	private int numAltNames = 0;
+
+	/**
+	 * Constructor.  Parses the Geonames XML result row.  If the row can't be parsed, the record keeps the XML
+	 * but all of its fields are null.
+	 *
+	 * @param xml Geonames XML result string
+	 */
+	public GeoNamesRecord(String xml) {
+		this.xml = xml;
+		try {
+			parse();
+			parsed = true;
+		} catch (Exception e) {
+			geonameId = name = admin1 = countryCode = latitude = longitude = population = null;
+			numAltNames = 0;
+		}
+	}
+
+	/**
+	 * Streams through the XML, keeping the text of the first element of each field.
+	 *
+	 * @throws Exception if the XML is not well-formed
+	 */
+	private void parse() throws Exception {
+		// The factory isn't guaranteed to be thread-safe, but the readers it creates are independent
+		XMLStreamReader reader;
+		synchronized (factory) {
+			reader = factory.createXMLStreamReader(new StringReader(xml));
+		}
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String element = reader.getLocalName();
+				if (element.equals("alt")) {
+					numAltNames++;
+				} else if (element.equals("geonameid") && geonameId == null) {
+					geonameId = readText(reader);
+				} else if (element.equals("name") && name == null) {
+					name = readText(reader);
+				} else if (element.equals("admin1") && admin1 == null) {
+					admin1 = readText(reader);
+				} else if (element.equals("country_code") && countryCode == null) {
+					countryCode = readText(reader);
+				} else if (element.equals("latitude") && latitude == null) {
+					latitude = readText(reader);
+				} else if (element.equals("longitude") && longitude == null) {
+					longitude = readText(reader);
+				} else if (element.equals("population") && population == null) {
+					population = readText(reader);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads all text inside the current element, including the text of any child elements, leaving the
+	 * reader on the element's end tag.
+	 *
+	 * @param reader Stream reader positioned on a start element
+	 * @return Text content of the element
+	 * @throws Exception if the XML is not well-formed
+	 */
+	private static String readText(XMLStreamReader reader) throws Exception {
+		StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+			else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE || event == XMLStreamConstants.ENTITY_REFERENCE)
+				text.append(reader.getText());
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Whether the XML could be parsed.
+	 *
+	 * @return True if the XML was parsed, false otherwise.
+	 */
+	public boolean wasParsed() {
+		return parsed;
+	}
+
+	/**
+	 * Gets the original Geonames XML result string.
+	 *
+	 * @return XML string
+	 */
+	public String getXML() {
+		return xml;
+	}
+
+	/**
+	 * Gets the geonames id.
+	 *
+	 * @return geonames id, or null if not available
+	 */
+	public String getGeonameId() {
+		return geonameId;
+	}
+
+	/**
+	 * Gets the name.
+	 *
+	 * @return name, or null if not available
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the admin1 code.
+	 *
+	 * @return admin1 code, or null if not available
+	 */
+	public String getAdmin1() {
+		return admin1;
+	}
+
+	/**
+	 * Gets the 2-digit country code.
+	 *
+	 * @return country code, or null if not available
+	 */
+	public String getCountryCode() {
+		return countryCode;
+	}
+
+	/**
+	 * Gets the latitude.
+	 *
+	 * @return latitude, or null if not available
+	 */
+	public String getLatitude() {
+		return latitude;
+	}
+
+	/**
+	 * Gets the longitude.
+	 *
+	 * @return longitude, or null if not available
+	 */
+	public String getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * Gets the population.
+	 *
+	 * @return population, or null if not available
+	 */
+	public String getPopulation() {
+		return population;
+	}
+
+	/**
+	 * Gets the number of alternate names.
+	 *
+	 * @return number of alternate names
+	 */
+	public int getNumAltNames() {
+		return numAltNames;
+	}
+
+	/**
+	 * Gets the values returned to Saxon for this place, keyed by the return element name (geonameId, name,
+	 * admin1, country, latitude, longitude) in that order.
+	 *
+	 * @return Map of return element names to values, or null if a value is missing.
+	 */
+	public Map<String, String> getReturnValues() {
+		if (geonameId == null || name == null || admin1 == null || countryCode == null
+				|| latitude == null || longitude == null)
+			return null;
+
+		Map<String, String> ret = new LinkedHashMap<String, String>();
+		ret.put("geonameId", geonameId);
+		ret.put("name", name);
+		ret.put("admin1", admin1);
+		ret.put("country", countryCode);
+		ret.put("latitude", latitude);
+		ret.put("longitude", longitude);
+		return ret;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof GeoNamesRecord && xml.equals(((GeoNamesRecord) o).xml);
+	}
+
+	@Override
+	public int hashCode() {
+		return xml.hashCode();
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2014 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers.datastructures;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GeoNames Result
+ *
+ * Immutable final result of a GeoNames lookup: the confidence, the values of the top result and the values
+ * of the other results, as returned to Saxon.  Results are safe to cache and share between threads.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class GeoNamesResult {
+
+	/**
+	 * Result of a lookup that found nothing.
+	 */
+	public static final GeoNamesResult EMPTY = new GeoNamesResult();
+
+	private final boolean found;
+	private final double confidence;
+	private final Map<String, String> top;
+	private final List<Map<String, String>> others;
+
+	/**
+	 * Constructor.  Creates a result for a lookup that found at least one place.
+	 *
+	 * @param confidence Confidence of the top result
+	 * @param top Values of the top result, or null if it couldn't be parsed
+	 * @param others Values of the other results
+	 */
+	public GeoNamesResult(double confidence, Map<String, String> top, List<Map<String, String>> others) {
+		this.found = true;
+		this.confidence = confidence;
+		this.top = top == null ? null : Collections.unmodifiableMap(top);
+		this.others = Collections.unmodifiableList(others);
+	}
+
+	/**
+	 * Constructor for the empty result.
+	 */
+	private GeoNamesResult() {
+		this.found = false;
+		this.confidence = 0.0;
+		this.top = null;
+		this.others = Collections.emptyList();
+	}
+
+	/**
+	 * Whether the lookup found any place.
+	 *
+	 * @return True if at least one place was found, false otherwise.
+	 */
+	public boolean wasFound() {
+		return found;
+	}
+
+	/**
+	 * Gets the confidence of the top result.
+	 *
+	 * @return confidence of the top result.
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * Gets the values of the top result, keyed by return element name.
+	 *
+	 * @return Map of return element names to values, or null if the top result couldn't be parsed.
+	 */
+	public Map<String, String> getTop() {
+		return top;
+	}
+
+	/**
+	 * Gets the values of the other results, keyed by return element name.  Results that couldn't be
+	 * parsed are null.
+	 *
+	 * @return List of maps of return element names to values.
+	 */
+	public List<Map<String, String>> getOthers() {
+		return others;
+	}
+}
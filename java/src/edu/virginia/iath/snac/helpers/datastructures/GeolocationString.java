@@ -16,14 +16,17 @@
  */
 package edu.virginia.iath.snac.helpers.datastructures;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * NGram String
  * 
  * Object for storing a geolocation string, its ngrams and other information about the place.
  * 
+ * The ngrams are kept as a sorted array of distinct codes, one <code>long</code> per ngram, so that the
+ * overlap of two strings is counted by merging their arrays.  Ngrams of up to four characters are packed
+ * into their code exactly; longer ngrams are hashed to it.
+ * 
  * @author Robbie Hott
  *
  */
@@ -31,7 +34,7 @@ public class GeolocationString {
 
 	private String string;
 	private int ngramLength;
-	private Set<String> ngrams;
+	private long[] ngrams;
 	
 	@SuppressWarnings("unused")
 	private GeolocationString master;
@@ -126,17 +129,31 @@ public class GeolocationString {
 	}
 
 	/**
-	 * Generates the ngrams of the given string, returning them as a set.
+	 * Generates the ngrams of the given string, returning their codes sorted and without duplicates.
 	 * 
 	 * @param str String to parse into ngrams
-	 * @return Set of ngram Strings.
+	 * @return Sorted array of distinct ngram codes.
 	 */
-	private Set<String> generateNGrams(String str) {
-		Set<String> ret = new HashSet<String>();
-		for (int i=0; i < str.length() - ngramLength; i++) {
-			ret.add(str.substring(i, i + ngramLength));
+	private long[] generateNGrams(String str) {
+		int n = Math.max(str.length() - ngramLength, 0);
+		long[] ret = new long[n];
+		for (int i=0; i < n; i++) {
+			long code = 0;
+			for (int j = i; j < i + ngramLength; j++) {
+				// 16 bits per character fill the code exactly up to four characters
+				code = (ngramLength <= 4 ? code << 16 : code * 1000003) + str.charAt(j);
+			}
+			ret[i] = code;
+		}
+		Arrays.sort(ret);
+
+		// Remove duplicates
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (size == 0 || ret[i] != ret[size - 1])
+				ret[size++] = ret[i];
 		}
-		return ret;
+		return size == n ? ret : Arrays.copyOf(ret, size);
 	}
 
 	/**
@@ -145,7 +162,7 @@ public class GeolocationString {
 	 * @return Number of ngrams
 	 */
 	public int getNumberOfNGrams() {
-		return ngrams.size();
+		return ngrams.length;
 	}
 
 	/**
@@ -156,10 +173,21 @@ public class GeolocationString {
 	 * @return Number of overlapping ngrams
 	 */
 	public int getNGramOverlap(GeolocationString ngs) {
-		Set<String> tmp = new HashSet<String>();
-		tmp.addAll(ngrams);
-		tmp.retainAll(ngs.ngrams);
-		return tmp.size();
+		long[] other = ngs.ngrams;
+		int overlap = 0;
+		int i = 0, j = 0;
+		while (i < ngrams.length && j < other.length) {
+			if (ngrams[i] < other[j]) {
+				i++;
+			} else if (ngrams[i] > other[j]) {
+				j++;
+			} else {
+				overlap++;
+				i++;
+				j++;
+			}
+		}
+		return overlap;
 	}
 
 	/**
@@ -188,8 +216,8 @@ public class GeolocationString {
 	public void setNGramMaster(GeolocationString query) {
 		master = query;
 		overlapWithMaster = getNGramOverlap(query);
-		differenceFromMaster = (this.ngrams.size() - overlapWithMaster) // number of extra ngrams in this string
-				+ (query.ngrams.size() - overlapWithMaster); // number of extra ngrams in the query string
+		differenceFromMaster = (this.ngrams.length - overlapWithMaster) // number of extra ngrams in this string
+				+ (query.ngrams.length - overlapWithMaster); // number of extra ngrams in the query string
 	}
 
 	
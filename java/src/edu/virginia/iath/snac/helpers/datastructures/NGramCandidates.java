@@ -0,0 +1,208 @@
+/**
+ *        The Institute for Advanced Technology in the Humanities
+ *
+ *        Copyright 2014 University of Virginia. Licensed under the Educational Community License, Version 2.0 (the
+ *        "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ *        License at
+ *
+ *        http://opensource.org/licenses/ECL-2.0
+ *        http://www.osedu.org/licenses/ECL-2.0
+ *
+ *        Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *        distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ *        the License for the specific language governing permissions and limitations under the License.
+ *
+ *
+ */
+package edu.virginia.iath.snac.helpers.datastructures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * NGram Candidates
+ *
+ * Scores the candidate results of an n-gram search against the query string as they arrive, keeping only the
+ * best few.  A candidate is scored as in GeoNamesHelper's n-gram post-processing: its name is broken into
+ * ngrams and compared with the query's, and it is a candidate only if it shares more than one ngram.  Counts
+ * used for the confidence are kept for every candidate, but the records themselves are kept only while they
+ * are among the best, so memory does not grow with the number of rows cheshire returns.
+ *
+ * @author Robbie Hott
+ *
+ */
+public class NGramCandidates {
+
+	// Number of distinct (difference, overlap) steps counted by getTopTierCount
+	private static final int TIERS = 4;
+
+	private final GeolocationString master;
+	private final int ngramLength;
+	private final Comparator<GeolocationString> comparator;
+	private final int max;
+	// Best candidates so far, worst at the head
+	private final PriorityQueue<Candidate> best;
+	private int offered = 0;
+	private int size = 0;
+	private int exactMatches = 0;
+	// Best (difference, overlap) pairs so far, packed so that better pairs are smaller, and their counts
+	private final long[] tierKeys = new long[TIERS];
+	private final int[] tierCounts = new int[TIERS];
+	private int tiers = 0;
+
+	/**
+	 * A scored candidate and the order it arrived in, which breaks ties as a stable sort would.
+	 */
+	private static class Candidate {
+		GeolocationString string;
+		int order;
+	}
+
+	/**
+	 * Constructor.  Creates an empty set of candidates for the given query string.
+	 *
+	 * @param query Query string, lower case and trimmed
+	 * @param n Length of the ngrams
+	 * @param comparator Order of the candidates, best first
+	 * @param max Number of best candidates to keep
+	 */
+	public NGramCandidates(String query, int n, Comparator<GeolocationString> comparator, int max) {
+		this.master = new GeolocationString(query, n);
+		this.ngramLength = n;
+		this.comparator = comparator;
+		this.max = Math.max(max, 1);
+		best = new PriorityQueue<Candidate>(this.max + 1, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate a, Candidate b) {
+				return worstFirst(a, b);
+			}
+		});
+	}
+
+	private int worstFirst(Candidate a, Candidate b) {
+		int c = comparator.compare(b.string, a.string);
+		return c != 0 ? c : b.order - a.order;
+	}
+
+	/**
+	 * Scores a result and keeps it if it is a candidate among the best so far.
+	 *
+	 * @param record Result from cheshire
+	 * @return True if the result is a candidate, false otherwise.
+	 */
+	public boolean offer(GeoNamesRecord record) {
+		if (record == null || record.getName() == null)
+			return false;
+
+		GeolocationString str = new GeolocationString(record.getName().toLowerCase().replace("(historical)", "").trim(), ngramLength);
+		str.setNGramMaster(master);
+		if (str.getOverlap() <= 1)
+			return false;
+		str.storeData(record);
+		str.setPopulation(record.getPopulation());
+		str.setNumAltNames(record.getNumAltNames());
+
+		size++;
+		if (str.getString().equals(master.getString()))
+			exactMatches++;
+		countTier(((long) str.getDifference() << 32) | (Integer.MAX_VALUE - str.getOverlap()));
+
+		Candidate candidate = new Candidate();
+		candidate.string = str;
+		candidate.order = offered++;
+		if (best.size() < max) {
+			best.add(candidate);
+		} else if (worstFirst(candidate, best.peek()) > 0) {
+			best.poll();
+			best.add(candidate);
+		}
+		return true;
+	}
+
+	/**
+	 * Counts a candidate's (difference, overlap) pair if it is among the best <code>TIERS</code> pairs so far.
+	 *
+	 * @param key Packed pair
+	 */
+	private void countTier(long key) {
+		int i = 0;
+		while (i < tiers && tierKeys[i] < key) {
+			i++;
+		}
+		if (i < tiers && tierKeys[i] == key) {
+			tierCounts[i]++;
+		} else if (i < TIERS) {
+			// Insert a new pair, dropping the worst if all tiers are taken
+			int last = Math.min(tiers, TIERS - 1);
+			System.arraycopy(tierKeys, i, tierKeys, i + 1, last - i);
+			System.arraycopy(tierCounts, i, tierCounts, i + 1, last - i);
+			tierKeys[i] = key;
+			tierCounts[i] = 1;
+			tiers = last + 1;
+		}
+	}
+
+	/**
+	 * Gets the master geolocation string the candidates are compared with.
+	 *
+	 * @return Query geolocation string.
+	 */
+	public GeolocationString getMaster() {
+		return master;
+	}
+
+	/**
+	 * Gets the number of candidates seen, including those no longer kept.
+	 *
+	 * @return Number of candidates.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of candidates whose name is the query string.
+	 *
+	 * @return Number of exact matches.
+	 */
+	public int getExactMatches() {
+		return exactMatches;
+	}
+
+	/**
+	 * Gets the number of candidates in the best four distinct (difference, overlap) pairs, where a lower
+	 * difference is better and then a higher overlap.
+	 *
+	 * @return Number of candidates in the top tiers.
+	 */
+	public int getTopTierCount() {
+		int count = 0;
+		for (int i = 0; i < tiers; i++) {
+			count += tierCounts[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the best candidates, best first, in the same order a stable sort of all candidates would give them.
+	 *
+	 * @return Best candidates, at most the number kept.
+	 */
+	public List<GeolocationString> getBest() {
+		List<Candidate> sorted = new ArrayList<Candidate>(best);
+		Collections.sort(sorted, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate a, Candidate b) {
+				return worstFirst(b, a);
+			}
+		});
+		List<GeolocationString> ret = new ArrayList<GeolocationString>(sorted.size());
+		for (Candidate candidate : sorted) {
+			ret.add(candidate.string);
+		}
+		return ret;
+	}
+}
@@ -16,10 +16,12 @@
  */
 package edu.virginia.iath.snac.helpers.datastructures;
 
+import java.text.DateFormatSymbols;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.time.DateUtils;
@@ -66,6 +68,26 @@ public class SNACDate {
 	private boolean parsed = false;
 	// If this date is part of a series or individual
 	private int type = 0;
+
+	// Full and short month names in lower case -> month, for the common date shapes.  Left empty (so
+	// only bare years take the fast path) if the locale has month names that aren't plain words.
+	private static final HashMap<String, Integer> monthNames = new HashMap<String, Integer>();
+	static {
+		DateFormatSymbols symbols = DateFormatSymbols.getInstance();
+		String[][] names = { symbols.getShortMonths(), symbols.getMonths() };
+		boolean words = true;
+		for (String[] list : names) {
+			for (int i = 0; i < list.length; i++) {
+				for (int j = 0; j < list[i].length(); j++) {
+					words &= Character.isLetter(list[i].charAt(j));
+				}
+				if (!list[i].isEmpty())
+					monthNames.put(list[i].toLowerCase(), i);
+			}
+		}
+		if (!words)
+			monthNames.clear();
+	}
 	
 	/**
 	 * Constructor.  Creates a standalone <code>SNACDate</code> with the
@@ -200,7 +222,10 @@ public class SNACDate {
 	 * @throws ParseException If date cannot be parsed, this method throws the ParseExeption.
 	 */
 	private Calendar parseDate(String str) throws ParseException {
-		Calendar date;
+		Calendar date = parseCommonDate(str.trim());
+		if (date != null)
+			return date;
+
 		date = Calendar.getInstance();
 			
 		date.setTime(DateUtils.parseDate(str.trim(),
@@ -217,6 +242,83 @@ public class SNACDate {
 		return date;
 	}
 	
+	/**
+	 * Parses the most common date shapes directly, without trying each of the patterns in
+	 * <code>parseDate</code> in turn.  Each shape is read exactly as the first pattern that would accept it:
+	 * <ul>
+	 * <li> 1850 (yyyy)
+	 * <li> March 1850, March, 1850, Mar. 1850 (MMMMM yyyy, MMMMM, yyyy, MMM. yyyy)
+	 * <li> March 3, 1850, Mar. 3, 1850 (MMMMM dd, yyyy, MMM. d, yyyy)
+	 * <li> 1850 Mar 3, 1850 Mar. 3, 1850, Mar 3 (yyyy MMM dd, yyyy MMM. dd, yyyy, MMM dd)
+	 * <li> 3 Mar, 1850 (dd MMM, yyyy)
+	 * <li> 1850 Mar, 1850, Mar (yyyy MMM, yyyy, MMM)
+	 * </ul>
+	 * Years have up to 4 digits and days up to 2, with single spaces between the parts.  Month names
+	 * are the full or short names of the default locale, in any case.  Like the patterns, out of range
+	 * days roll over into the next month.
+	 * 
+	 * @param str Trimmed string to be parsed.
+	 * @return Calendar object of the given date string, or null if it isn't one of the common shapes.
+	 */
+	private static Calendar parseCommonDate(String str) {
+		// Break the string into numbers (N), words (W) and the punctuation between them
+		StringBuilder shape = new StringBuilder();
+		ArrayList<String> parts = new ArrayList<String>(3);
+		int i = 0;
+		while (i < str.length() && parts.size() <= 3) {
+			char c = str.charAt(i);
+			int start = i;
+			if (c >= '0' && c <= '9') {
+				while (i < str.length() && str.charAt(i) >= '0' && str.charAt(i) <= '9')
+					i++;
+				shape.append('N');
+				parts.add(str.substring(start, i));
+			} else if (Character.isLetter(c)) {
+				while (i < str.length() && Character.isLetter(str.charAt(i)))
+					i++;
+				shape.append('W');
+				parts.add(str.substring(start, i));
+			} else if (c == ' ' || c == ',' || c == '.') {
+				shape.append(c);
+				i++;
+			} else {
+				return null;
+			}
+		}
+		if (i < str.length())
+			return null;
+
+		// Pick out which part is the year, month and day
+		int year = -1, month = -1, day = -1;
+		String form = shape.toString();
+		if (form.equals("N")) {
+			year = 0;
+		} else if (form.equals("W N") || form.equals("W, N") || form.equals("W. N")) {
+			month = 0; year = 1;
+		} else if (form.equals("W N, N") || form.equals("W. N, N")) {
+			month = 0; day = 1; year = 2;
+		} else if (form.equals("N W N") || form.equals("N W. N") || form.equals("N, W N")) {
+			year = 0; month = 1; day = 2;
+		} else if (form.equals("N W, N")) {
+			day = 0; month = 1; year = 2;
+		} else if (form.equals("N W") || form.equals("N, W")) {
+			year = 0; month = 1;
+		} else {
+			return null;
+		}
+
+		if (parts.get(year).length() > 4 || (day >= 0 && parts.get(day).length() > 2))
+			return null;
+		Integer monthValue = month >= 0 ? monthNames.get(parts.get(month).toLowerCase()) : Integer.valueOf(0);
+		if (monthValue == null)
+			return null;
+
+		Calendar date = Calendar.getInstance();
+		date.clear();
+		date.set(Integer.parseInt(parts.get(year)), monthValue, day >= 0 ? Integer.parseInt(parts.get(day)) : 1);
+		return date;
+	}
+
 	/**
 	 * Handle all the modifiers on this string.  This should be called as a post-processing step
 	 * after the exact date has been processed.  It adds not-before and not-after dates based on the
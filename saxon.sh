@@ -11,5 +11,8 @@ export APACHE_COMMONS=~/javarepo/commons-lang3-3.1/commons-lang3-3.1.jar
 # Set this to the path where you compiled the Java source
 export SNAC_JAVA=~/SNAC-Saxon-Extensions/java/bin
 
+# Set this to any Java options, such as -D system properties for the extensions
+export SNAC_JAVA_OPTS=${SNAC_JAVA_OPTS:-}
+
 export CLASSPATH=$SAXON_HOME:$APACHE_COMMONS:$SNAC_JAVA:$CLASSPATH
-java edu.virginia.iath.snac.SnacTransform ${1+"$@"}
+java $SNAC_JAVA_OPTS edu.virginia.iath.snac.SnacTransform ${1+"$@"}
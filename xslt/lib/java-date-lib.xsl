@@ -38,14 +38,38 @@
     <xsl:template name="tpt_parse_date">
       <xsl:param name="date"/>
       <xsl:variable name="dates" select="saxext:date-parser($date)"/>
+      <xsl:call-template name="tpt_date_entry">
+        <xsl:with-param name="date" select="$date"/>
+        <xsl:with-param name="dates" select="$dates/return"/>
+      </xsl:call-template>
+    </xsl:template>
+
+    <!-- Parse a sequence of dates (for example, all the dates of an EAC file) in one Java call.  Each distinct
+	 date string is only parsed once.  The output for each date, in order, is the same as tpt_parse_date's -->
+    <xsl:template name="tpt_parse_dates">
+      <xsl:param name="dates"/>
+      <xsl:variable name="parsed" select="saxext:parse-dates($dates)/return"/>
+      <xsl:for-each select="$dates">
+        <xsl:variable name="i" select="position()"/>
+        <xsl:call-template name="tpt_date_entry">
+          <xsl:with-param name="date" select="."/>
+          <xsl:with-param name="dates" select="$parsed[$i]"/>
+        </xsl:call-template>
+      </xsl:for-each>
+    </xsl:template>
+
+    <!-- Output the 1-2 dates of a Java date parser return element, wrapping multiple dates in a dateSet -->
+    <xsl:template name="tpt_date_entry">
+      <xsl:param name="date"/>
+      <xsl:param name="dates"/>
 			<xsl:choose>
-				<xsl:when test="count($dates/return/*) = 1">
-					<xsl:copy-of select="$dates/return/node()"/>
+				<xsl:when test="count($dates/*) = 1">
+					<xsl:copy-of select="$dates/node()"/>
 			  </xsl:when>
-				<xsl:when test="count($dates/return/*) > 1">
+				<xsl:when test="count($dates/*) > 1">
 					<dateSet>
 						<xsl:attribute name="originalDate" select="$date"/>
-						<xsl:copy-of select="$dates/return/node()"/>
+						<xsl:copy-of select="$dates/node()"/>
 					</dateSet>
 				</xsl:when>
 			</xsl:choose>
@@ -107,6 +107,36 @@
     <xsl:template name="tpt_query_cheshire">
       <xsl:param name="geostring"/>
       <xsl:variable name="location" select="saxext:geonames-cheshire($geostring)"/>
+      <xsl:call-template name="tpt_cheshire_place_entry">
+        <xsl:with-param name="geostring" select="$geostring"/>
+        <xsl:with-param name="location" select="$location/return"/>
+      </xsl:call-template>
+    </xsl:template>
+
+    <!-- Query Cheshire's Geonames index for a sequence of geographical strings at once
+	 Parameter: the geographical strings to lookup
+	 
+	 Returns a snac:placeEntry for each string, in order, the same as tpt_query_cheshire.  Each distinct
+	 string is only looked up once, and the lookups may run in parallel (see the snac.geonames.batchThreads
+	 property in the README).
+	 -->
+    <xsl:template name="tpt_query_cheshire_batch">
+      <xsl:param name="geostrings"/>
+      <xsl:variable name="locations" select="saxext:geonames-cheshire-batch($geostrings)/return"/>
+      <xsl:for-each select="$geostrings">
+        <xsl:variable name="i" select="position()"/>
+        <xsl:call-template name="tpt_cheshire_place_entry">
+          <xsl:with-param name="geostring" select="."/>
+          <xsl:with-param name="location" select="$locations[$i]"/>
+        </xsl:call-template>
+      </xsl:for-each>
+    </xsl:template>
+
+    <!-- Formats the snac:placeEntry for one geographical string from the return element of a Cheshire
+	 lookup, as described above -->
+    <xsl:template name="tpt_cheshire_place_entry">
+      <xsl:param name="geostring"/>
+      <xsl:param name="location"/>
       <xsl:variable name="geonamesAddr" select='"http://www.geonames.org/"'/>
 	  <snac:placeEntry>
 		<placeEntry><xsl:value-of select="$geostring"/></placeEntry>
@@ -114,30 +144,30 @@
 			<!-- The below cutoff is the tradeoff between false positives and false negatives.  0.5
 				would eliminate all nearly all false positives.  At 0.06, empirically we see
 				2% false positives and 31% unmatched (not all false negatives) -->
-			<xsl:when test="$location/return/score > 0.06">
+			<xsl:when test="$location/score > 0.06">
 				<snac:placeEntryLikelySame>
-					<xsl:attribute name="vocabularySource" select="concat($geonamesAddr, $location/return/geonameId)"/>
-					<xsl:attribute name="certaintyScore" select="normalize-space($location/return/score)"/>
-					<xsl:attribute name="latitude" select="normalize-space($location/return/latitude)"/>
-					<xsl:attribute name="longitude" select="normalize-space($location/return/longitude)"/>
-					<xsl:attribute name="countryCode" select="normalize-space($location/return/country)"/>
-					<xsl:attribute name="administrativeCode" select="normalize-space($location/return/admin1)"/>
-					<xsl:value-of select="$location/return/name"/>
+					<xsl:attribute name="vocabularySource" select="concat($geonamesAddr, $location/geonameId)"/>
+					<xsl:attribute name="certaintyScore" select="normalize-space($location/score)"/>
+					<xsl:attribute name="latitude" select="normalize-space($location/latitude)"/>
+					<xsl:attribute name="longitude" select="normalize-space($location/longitude)"/>
+					<xsl:attribute name="countryCode" select="normalize-space($location/country)"/>
+					<xsl:attribute name="administrativeCode" select="normalize-space($location/admin1)"/>
+					<xsl:value-of select="$location/name"/>
 				</snac:placeEntryLikelySame>
 			</xsl:when>
 			<xsl:otherwise>
 				<snac:placeEntryBestMaybeSame>
-					<xsl:attribute name="vocabularySource" select="concat($geonamesAddr, $location/return/geonameId)"/>
-					<xsl:attribute name="certaintyScore" select="normalize-space($location/return/score)"/>
-					<xsl:attribute name="latitude" select="normalize-space($location/return/latitude)"/>
-					<xsl:attribute name="longitude" select="normalize-space($location/return/longitude)"/>
-					<xsl:attribute name="countryCode" select="normalize-space($location/return/country)"/>
-					<xsl:attribute name="administrativeCode" select="normalize-space($location/return/admin1)"/>
-					<xsl:value-of select="$location/return/name"/>
+					<xsl:attribute name="vocabularySource" select="concat($geonamesAddr, $location/geonameId)"/>
+					<xsl:attribute name="certaintyScore" select="normalize-space($location/score)"/>
+					<xsl:attribute name="latitude" select="normalize-space($location/latitude)"/>
+					<xsl:attribute name="longitude" select="normalize-space($location/longitude)"/>
+					<xsl:attribute name="countryCode" select="normalize-space($location/country)"/>
+					<xsl:attribute name="administrativeCode" select="normalize-space($location/admin1)"/>
+					<xsl:value-of select="$location/name"/>
 				</snac:placeEntryBestMaybeSame>
 			</xsl:otherwise>
 		</xsl:choose>
-		<xsl:for-each select="$location/return/otherResults/place">
+		<xsl:for-each select="$location/otherResults/place">
 			<snac:placeEntryMaybeSame>
 				<xsl:attribute name="vocabularySource" select="concat($geonamesAddr, geonameId)"/>
 				<xsl:attribute name="latitude" select="normalize-space(latitude)"/>